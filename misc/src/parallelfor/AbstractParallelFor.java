@@ -0,0 +1,499 @@
+package parallelfor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Function;
+
+/**
+ * Common base of {@link ParallelFor} and {@link CheckedParallelFor}, which
+ * holds the thread configuration and the actual loop engine.
+ *
+ * @author oreissig
+ *
+ * @param <T> type of elements to be iterated over
+ * @param <E> type of exception that may be thrown
+ */
+abstract class AbstractParallelFor<T, E extends Exception> {
+
+	static final int UNLIMITED = -1;
+	final int threads;
+	private final List<IterationListener> listeners = new CopyOnWriteArrayList<>();
+	private volatile Function<? super T, ?> keyExtractor;
+	private volatile int batchSize;
+	private volatile long batchDelay;
+	private volatile CostEstimator<? super T> costEstimator;
+	private volatile Scheduling scheduling;
+	private volatile long stepTimeout;
+	private volatile TimeoutPolicy timeoutPolicy = TimeoutPolicy.FAIL;
+	private volatile int maxRetries = 1;
+	private volatile long deadline;
+
+	AbstractParallelFor(int threads) {
+		this.threads = threads;
+	}
+
+	static int availableProcessors(boolean unlimited) {
+		if (unlimited) {
+			return UNLIMITED;
+		} else {
+			return Runtime.getRuntime().availableProcessors();
+		}
+	}
+
+	/**
+	 * Registers a listener, that receives the {@link IterationStatistics}
+	 * of every subsequent call to {@link #iterate(Iterable)}.
+	 * Steps are only instrumented while at least one listener is registered.
+	 *
+	 * @param listener to be notified
+	 */
+	public void addIterationListener(IterationListener listener) {
+		if (listener == null)
+			throw new NullPointerException();
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener, that has been added via
+	 * {@link #addIterationListener(IterationListener)}.
+	 *
+	 * @param listener to be removed
+	 */
+	public void removeIterationListener(IterationListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Enables key-affinity partitioned execution.
+	 * All items with the same key (according to {@link Object#equals(Object)})
+	 * are processed by the same worker thread in the order of iteration, so
+	 * steps may keep unsynchronized per-key state, as long as different keys
+	 * do not share it.
+	 * Items with different keys may still share a worker, so a slow key can
+	 * delay others. Unlimited loops use as many workers as there are CPU cores.
+	 * 
+	 * @param keyExtractor computes the key of an item,
+	 * 		or null to let any worker process any item (the default)
+	 */
+	public void setKeyExtractor(Function<? super T, ?> keyExtractor) {
+		this.keyExtractor = keyExtractor;
+	}
+
+	/**
+	 * Enables batching by count.
+	 * Consecutive items are grouped into batches of the given size, which
+	 * are passed to {@link #stepBatch(List)} instead of {@link #step(Object)}.
+	 * With a key extractor, batches only contain items of the same worker.
+	 *
+	 * @param batchSize maximum number of items per batch, or 0 to only
+	 * 		batch by time
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 0)
+			throw new IllegalArgumentException("batch size must not be negative");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Enables batching by time.
+	 * A batch is dispatched once its first item has been waiting for the
+	 * given time, even if it is not full yet and the iteration is still
+	 * blocked producing the next item. All incomplete batches are
+	 * dispatched once the iteration is exhausted.
+	 *
+	 * @param delay maximum time to hold back an item, or 0 to only batch
+	 * 		by count
+	 * @param unit of the delay
+	 */
+	public void setBatchDelay(long delay, TimeUnit unit) {
+		if (delay < 0)
+			throw new IllegalArgumentException("batch delay must not be negative");
+		this.batchDelay = unit.toNanos(delay);
+	}
+
+	/**
+	 * Enables cost-aware scheduling, which minimizes the total duration of
+	 * loops with skewed step costs, that are known up front.
+	 * This requires the whole iteration to be materialized before the first
+	 * step is submitted, and cannot be combined with a key extractor or
+	 * batching.
+	 *
+	 * @param costEstimator estimates the cost of the step for an item,
+	 * 		or null to submit steps in the order of iteration (the default)
+	 * @param scheduling strategy to schedule the steps by their costs
+	 */
+	public void setCostEstimator(CostEstimator<? super T> costEstimator, Scheduling scheduling) {
+		if (costEstimator != null && scheduling == null)
+			throw new NullPointerException("scheduling");
+		this.costEstimator = costEstimator;
+		this.scheduling = scheduling;
+	}
+
+	/**
+	 * Limits the duration of each step, measured from the time it starts.
+	 * Steps exceeding their timeout get interrupted and are handled
+	 * according to the given policy, once they have returned, so attempts of
+	 * the same item never overlap. Note that steps ignoring interruption
+	 * keep the loop from finishing, unless there is a deadline, see
+	 * {@link #setDeadline(long, TimeUnit)}.
+	 * When batching, the timeout applies to the whole batch, whereas the
+	 * items of {@link Scheduling#BALANCED_CHUNKS} are limited one by one.
+	 *
+	 * @param timeout maximum duration of a step, or 0 for no limit (the default)
+	 * @param unit of the timeout
+	 * @param policy what to do with a step exceeding its timeout, where
+	 * 		{@link TimeoutPolicy#RETRY} cannot be combined with a key extractor
+	 */
+	public void setStepTimeout(long timeout, TimeUnit unit, TimeoutPolicy policy) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("timeout must not be negative");
+		if (policy == null)
+			throw new NullPointerException("policy");
+		this.stepTimeout = unit.toNanos(timeout);
+		this.timeoutPolicy = policy;
+	}
+
+	/**
+	 * Sets how often a step is retried with {@link TimeoutPolicy#RETRY},
+	 * before the loop fails.
+	 *
+	 * @param maxRetries maximum number of retries per step, 1 by default
+	 */
+	public void setMaxRetries(int maxRetries) {
+		if (maxRetries < 0)
+			throw new IllegalArgumentException("retries must not be negative");
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Limits the duration of each iteration, measured from the call to
+	 * {@link #iterate(Iterable)} or {@link #iterateAsync(Iterable)}.
+	 * Once it is exceeded, the iteration fails with an
+	 * {@link IterationTimeoutException}, running steps get interrupted and
+	 * pending steps are dropped.
+	 *
+	 * @param timeout maximum duration of an iteration, or 0 for no limit
+	 * 		(the default)
+	 * @param unit of the timeout
+	 */
+	public void setDeadline(long timeout, TimeUnit unit) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("timeout must not be negative");
+		this.deadline = unit.toNanos(timeout);
+	}
+
+	ExecutorService createExecutor() {
+		if (threads == UNLIMITED)
+			return Executors.newCachedThreadPool();
+		else
+			return Executors.newFixedThreadPool(threads);
+	}
+
+	Dispatcher<T> createDispatcher() {
+		Function<? super T, ?> keys = keyExtractor;
+		if (keys == null)
+			return new ExecutorDispatcher<>(createExecutor());
+		else
+			return new KeyAffinityDispatcher<>(keys, workers());
+	}
+
+	/**
+	 * @return number of workers, where unlimited loops use as many as
+	 * 		there are CPU cores
+	 */
+	int workers() {
+		return threads == UNLIMITED ? Runtime.getRuntime().availableProcessors() : threads;
+	}
+
+	/**
+	 * Performs a parallel iteration of the specified step over the given
+	 * {@link Iterable}.
+	 * This method returns once all steps have finished.
+	 *
+	 * @param iteration to be iterated over
+	 * @throws E rethrows an exception that may be thrown by a step.
+	 * 		In case more than one step throws an exception, the first in the order
+	 * 		of iteration is the one to be rethrown.
+	 * 		When batching, batches are ordered by their first item.
+	 */
+	public void iterate(Iterable<T> iteration) throws E {
+		CompletableFuture<Void> loop = iterateAsync(iteration);
+		try {
+			loop.get();
+		} catch (InterruptedException ie) {
+			loop.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("exception waiting for result of iteration", ie);
+		} catch (ExecutionException ee) {
+			throw rethrow(ee.getCause());
+		}
+	}
+
+	/**
+	 * Starts a parallel iteration of the specified step over the given
+	 * {@link Iterable}.
+	 * This method returns as soon as all steps have been enqueued, so
+	 * several loops may be composed without parking a thread per loop.
+	 * Cancelling the returned future interrupts all running steps and
+	 * drops those, that have not been started yet.
+	 *
+	 * @param iteration to be iterated over
+	 * @return future, that completes once all steps have finished.
+	 * 		In case steps throw an exception, it completes exceptionally with
+	 * 		the exception of the first of them in the order of iteration.
+	 */
+	public CompletableFuture<Void> iterateAsync(Iterable<T> iteration) {
+		int maxBatch = batchSize;
+		long maxDelay = batchDelay;
+		boolean batching = maxBatch > 1 || maxDelay > 0;
+		CostEstimator<? super T> estimator = costEstimator;
+		Scheduling strategy = scheduling;
+		if (estimator != null && (batching || keyExtractor != null))
+			throw new IllegalStateException("cost-aware scheduling cannot be combined with batching or key affinity");
+		if (keyExtractor != null && stepTimeout > 0 && timeoutPolicy == TimeoutPolicy.RETRY)
+			// retries would be enqueued behind later items of the same key
+			throw new IllegalStateException("retrying timed out steps cannot be combined with key affinity");
+
+		Dispatcher<T> dispatcher = createDispatcher();
+		final Loop loop = new Loop(dispatcher, new ArrayList<>(listeners), threads);
+		loop.limit(stepTimeout, timeoutPolicy, maxRetries, deadline);
+		// shared with the timer, that dispatches batches held back too long
+		final List<Batch<T>> open = new ArrayList<>(Collections.<Batch<T>>nCopies(dispatcher.lanes(), null));
+
+		// position of the next step in the order of iteration
+		int slot = 0;
+		try {
+			if (estimator != null) {
+				submitByCost(loop, iteration, estimator, strategy);
+				return loop;
+			}
+
+			// enqueue all elements
+			for (final T i : iteration) {
+				int lane = dispatcher.lane(i);
+				if (!batching) {
+					loop.submit(lane, slot++, single(i));
+					continue;
+				}
+
+				synchronized (open) {
+					Batch<T> b = open.get(lane);
+					if (b == null) {
+						// take the position of the batch's first item
+						b = new Batch<>(slot++);
+						open.set(lane, b);
+						if (maxDelay > 0)
+							b.timer = loop.schedule(flush(loop, open, lane, b), maxDelay);
+					}
+					b.items.add(i);
+					if (b.items.size() >= maxBatch && maxBatch > 0)
+						submit(loop, open, lane);
+				}
+			}
+			// enqueue incomplete batches
+			synchronized (open) {
+				for (int l = 0; l < open.size(); l++) {
+					if (open.get(l) != null)
+						submit(loop, open, l);
+				}
+			}
+		} catch (RuntimeException | Error e) {
+			loop.fail(slot, e);
+		} finally {
+			// the timer must not submit anything, once the loop may be finished
+			synchronized (open) {
+				for (int l = 0; l < open.size(); l++) {
+					Batch<T> o = open.set(l, null);
+					if (o != null && o.timer != null)
+						o.timer.cancel(false);
+				}
+			}
+			loop.submitted();
+		}
+		return loop;
+	}
+
+	/**
+	 * Submits the open batch of a lane, while holding the lock on the open
+	 * batches.
+	 */
+	private void submit(Loop loop, List<Batch<T>> open, int lane) {
+		Batch<T> b = open.set(lane, null);
+		if (b.timer != null)
+			b.timer.cancel(false);
+		loop.submit(lane, b.slot, batch(b.items));
+	}
+
+	/**
+	 * @return timer task, that submits the given batch, unless it has been
+	 * 		submitted already
+	 */
+	private Runnable flush(final Loop loop, final List<Batch<T>> open, final int lane, final Batch<T> b) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				synchronized (open) {
+					if (open.get(lane) != b)
+						return;
+					try {
+						submit(loop, open, lane);
+					} catch (RejectedExecutionException e) {
+						// the loop has been aborted meanwhile
+					}
+				}
+			}
+		};
+	}
+
+	private void submitByCost(final Loop loop, Iterable<T> iteration,
+			CostEstimator<? super T> estimator, Scheduling strategy) {
+		final List<T> items = new ArrayList<>();
+		for (T i : iteration)
+			items.add(i);
+		final long[] costs = new long[items.size()];
+		Integer[] order = new Integer[items.size()];
+		for (int i = 0; i < costs.length; i++) {
+			costs[i] = estimator.cost(items.get(i));
+			order[i] = i;
+		}
+		// the sort is stable, so equal costs keep the order of iteration
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(costs[b], costs[a]);
+			}
+		});
+
+		if (strategy == Scheduling.LONGEST_FIRST) {
+			for (int i : order)
+				loop.submit(0, i, single(items.get(i)));
+			return;
+		}
+
+		// greedily put the next most expensive item into the lightest chunk
+		int workers = Math.min(workers(), Math.max(1, items.size()));
+		List<List<Integer>> chunks = new ArrayList<>();
+		long[] load = new long[workers];
+		for (int w = 0; w < workers; w++)
+			chunks.add(new ArrayList<Integer>());
+		for (int i : order) {
+			int lightest = 0;
+			for (int w = 1; w < workers; w++)
+				if (load[w] < load[lightest])
+					lightest = w;
+			chunks.get(lightest).add(i);
+			load[lightest] += costs[i];
+		}
+		for (final List<Integer> chunk : chunks) {
+			if (chunk.isEmpty())
+				continue;
+			Collections.sort(chunk);
+			final List<Callable<Void>> steps = new ArrayList<>(chunk.size());
+			for (int i : chunk)
+				steps.add(loop.instrument(single(items.get(i))));
+			loop.submitChunk(0, chunk.get(0), new Callable<Void>() {
+				@Override
+				public Void call() {
+					// keep going after failures, the loop picks the first one
+					for (int k = 0; k < chunk.size(); k++) {
+						if (!loop.runItem(chunk.get(k), steps.get(k)))
+							break;
+					}
+					return null;
+				}
+			});
+		}
+	}
+
+	private Callable<Void> single(final T item) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws E {
+				step(item);
+				return null;
+			}
+		};
+	}
+
+	private Callable<Void> batch(final List<T> items) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws E {
+				stepBatch(Collections.unmodifiableList(items));
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Items collected for one lane, that have not been submitted yet.
+	 */
+	private static class Batch<T> {
+		final List<T> items = new ArrayList<>();
+		final int slot;
+		ScheduledFuture<?> timer;
+
+		Batch(int slot) {
+			this.slot = slot;
+		}
+	}
+
+	/**
+	 * Converts an exception thrown by a step into something, that can be
+	 * thrown by {@link #iterate(Iterable)}.
+	 *
+	 * @param cause exception thrown by a step
+	 * @return the exception to be thrown, if it is not unchecked anyway
+	 */
+	E rethrow(Throwable cause) {
+		if (cause instanceof RuntimeException) {
+			// cast has been checked
+			throw (RuntimeException)cause;
+		} else if (cause instanceof Error) {
+			throw (Error)cause;
+		} else {
+			// only E is allowed to be thrown
+			@SuppressWarnings("unchecked")
+			E e = (E)cause;
+			return e;
+		}
+	}
+
+	/**
+	 * Implements one step of an iteration.
+	 * This method contains what would usually be contained in the body of a regular for-loop.
+	 * As this will be called by multiple Threads, it has to be concurrency safe.
+	 *
+	 * @param item to be worked on
+	 * @throws E checked exception, that may be thrown
+	 */
+	public abstract void step(T item) throws E;
+
+	/**
+	 * Implements one step of a batched iteration, see
+	 * {@link #setBatchSize(int)} and {@link #setBatchDelay(long, TimeUnit)}.
+	 * Override this method to pay expensive per-call overhead (like a
+	 * database round trip) only once per batch.
+	 * As this will be called by multiple Threads, it has to be concurrency safe.
+	 * The default implementation calls {@link #step(Object)} for every item.
+	 *
+	 * @param items to be worked on, in the order of iteration
+	 * @throws E checked exception, that may be thrown
+	 */
+	public void stepBatch(List<T> items) throws E {
+		for (T item : items)
+			step(item);
+	}
+}
@@ -0,0 +1,151 @@
+package parallelfor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This helper class performs a numeric loop over an {@link IntRange} in
+ * parallel, like {@link ParallelFor}, but passes contiguous slices of the
+ * range to each step instead of single boxed values.
+ * <p>
+ * The range is cut into a few chunks per thread, whose lengths are
+ * multiples of the configured number of lanes. A simple counted loop over
+ * such a slice, like an array transform, gets compiled to SIMD
+ * instructions by the JIT, so this combines parallelism across cores with
+ * vectorization within each chunk. The remainder, that does not fill all
+ * lanes, is passed to {@link #stepTail(int, int)}.
+ * 
+ * @author oreissig
+ */
+public abstract class ChunkedParallelFor {
+
+	/**
+	 * 8 ints fill a 256 bit vector register
+	 */
+	public static final int DEFAULT_LANES = 8;
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private final int threads;
+	private final int lanes;
+	private final ParallelFor<int[]> engine;
+
+	/**
+	 * Initializes a chunked for-loop executor.
+	 * The default is to use as many threads as there are CPU cores available.
+	 */
+	public ChunkedParallelFor() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Initializes a chunked for-loop executor.
+	 * 
+	 * @param maxThreads number of Threads to run in parallel
+	 */
+	public ChunkedParallelFor(int maxThreads) {
+		this(maxThreads, DEFAULT_LANES);
+	}
+
+	/**
+	 * Initializes a chunked for-loop executor.
+	 * 
+	 * @param maxThreads number of Threads to run in parallel
+	 * @param lanes the length of every slice passed to
+	 *            {@link #step(int, int)} is a multiple of this
+	 */
+	public ChunkedParallelFor(int maxThreads, int lanes) {
+		if (lanes < 1)
+			throw new IllegalArgumentException("must use at least one lane");
+
+		this.threads = maxThreads;
+		this.lanes = lanes;
+		this.engine = new ParallelFor<int[]>(maxThreads) {
+			@Override
+			public void step(int[] slice) {
+				int from = slice[0], to = slice[1];
+				if (from < to)
+					ChunkedParallelFor.this.step(from, to);
+				if (to < slice[2])
+					stepTail(to, slice[2]);
+			}
+		};
+	}
+
+	/**
+	 * Performs a parallel iteration of the specified step over the given
+	 * range.
+	 * 
+	 * @param range to be iterated over, must have a step of 1
+	 * @throws RuntimeException rethrows an exception that may be thrown by a step.
+	 * 		In case more than one step throws an exception, the first in the order
+	 * 		of iteration is the one to be rethrown.
+	 */
+	public void iterate(IntRange range) throws RuntimeException {
+		engine.iterate(slices(range));
+	}
+
+	/**
+	 * Starts a parallel iteration of the specified step over the given
+	 * range, see {@link ParallelFor#iterateAsync(Iterable)}.
+	 * 
+	 * @param range to be iterated over, must have a step of 1
+	 * @return future, that completes once all steps have finished
+	 */
+	public CompletableFuture<Void> iterateAsync(IntRange range) {
+		return engine.iterateAsync(slices(range));
+	}
+
+	/**
+	 * Cuts the range into chunks of a multiple of lanes.
+	 * Each slice consists of its start, the end of the part filling all
+	 * lanes and its actual end.
+	 */
+	private List<int[]> slices(IntRange range) {
+		if (range.getStep() != 1)
+			throw new IllegalArgumentException("only ranges with a step of 1 can be chunked");
+
+		List<int[]> slices = new ArrayList<>();
+		long start = range.getStart(), end = range.getEnd();
+		long length = Math.max(0, end - start);
+		long full = length - length % lanes;
+		long chunks = (long) threads * CHUNKS_PER_THREAD;
+		long chunk = (full / lanes + chunks - 1) / chunks * lanes;
+		for (long from = start; from < start + full; from += chunk) {
+			long to = Math.min(from + chunk, start + full);
+			slices.add(new int[] { (int) from, (int) to, (int) to });
+		}
+		if (full < length) {
+			int tail = (int) (start + full);
+			if (slices.isEmpty())
+				slices.add(new int[] { tail, tail, (int) end });
+			else
+				slices.get(slices.size() - 1)[2] = (int) end;
+		}
+		return slices;
+	}
+
+	/**
+	 * Implements one step of an iteration, which processes a slice of the
+	 * range, whose length is a multiple of the number of lanes.
+	 * It should contain a simple counted loop, like
+	 * <code>for (int i = from; i &lt; to; i++)</code>, so that it can be
+	 * vectorized by the JIT.
+	 * As this will be called by multiple Threads, it has to be concurrency safe.
+	 * 
+	 * @param from first value of the slice (inclusive)
+	 * @param to last value of the slice (exclusive)
+	 */
+	public abstract void step(int from, int to);
+
+	/**
+	 * Processes the end of the range, that does not fill all lanes.
+	 * The default implementation calls {@link #step(int, int)}.
+	 * 
+	 * @param from first value of the tail (inclusive)
+	 * @param to last value of the tail (exclusive)
+	 */
+	public void stepTail(int from, int to) {
+		step(from, to);
+	}
+}
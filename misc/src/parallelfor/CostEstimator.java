@@ -0,0 +1,20 @@
+package parallelfor;
+
+/**
+ * Estimates the relative cost of the step for an item, like its file size
+ * or row count, for cost-aware scheduling.
+ * 
+ * @author oreissig
+ *
+ * @param <T> type of elements to be iterated over
+ * @see ParallelFor#setCostEstimator(CostEstimator, Scheduling)
+ * @see CheckedParallelFor#setCostEstimator(CostEstimator, Scheduling)
+ */
+public interface CostEstimator<T> {
+
+	/**
+	 * @param item to be worked on
+	 * @return estimated cost, in an arbitrary but consistent unit
+	 */
+	long cost(T item);
+}
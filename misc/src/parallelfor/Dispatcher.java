@@ -0,0 +1,50 @@
+package parallelfor;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Decides which worker executes the step for an item.
+ * 
+ * @author oreissig
+ *
+ * @param <T> type of elements to be iterated over
+ */
+interface Dispatcher<T> {
+
+	/**
+	 * @return number of independent lanes, items are distributed across
+	 */
+	int lanes();
+
+	/**
+	 * Selects the lane, that the step for the given item has to be
+	 * submitted to.
+	 * 
+	 * @param item to be worked on
+	 * @return lane between 0 (inclusive) and {@link #lanes()} (exclusive)
+	 */
+	int lane(T item);
+
+	/**
+	 * Enqueues a step.
+	 * 
+	 * @param lane as returned by {@link #lane(Object)}
+	 * @param step to be executed
+	 */
+	void execute(int lane, Runnable step);
+
+	/**
+	 * Initiates an orderly shutdown, in which already submitted steps are
+	 * still executed, see {@link ExecutorService#shutdown()}.
+	 */
+	void shutdown();
+
+	/**
+	 * Attempts to stop all running steps, see
+	 * {@link ExecutorService#shutdownNow()}.
+	 * 
+	 * @return steps, that have never been started
+	 */
+	List<Runnable> shutdownNow();
+}
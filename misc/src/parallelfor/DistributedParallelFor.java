@@ -0,0 +1,287 @@
+package parallelfor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This helper class performs some action on all given elements in parallel,
+ * like {@link ParallelFor}, but distributes the steps across several
+ * worker JVMs on the local machine, which are connected via loopback
+ * sockets. This allows for loops, that exceed what a single heap and
+ * garbage collector can handle.
+ * <p>
+ * The elements are sent to the workers in chunks. Workers fetch a new chunk
+ * once they are done with the previous one, so the load is balanced
+ * dynamically. Each worker processes its chunks sequentially, so there
+ * should be about as many workers as there are CPU cores.
+ * <p>
+ * The loop itself gets serialized to the workers, so implementations must
+ * not reference state of enclosing instances; use static nested classes or
+ * anonymous classes in a static context. Fields are copied to each worker,
+ * so changes made by a step are not visible in the calling JVM. Workers run
+ * with the class path of the calling JVM.
+ * 
+ * @author oreissig
+ *
+ * @param <T> type of elements to be iterated over
+ */
+public abstract class DistributedParallelFor<T extends Serializable> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private static final int DEFAULT_CHUNK_SIZE = 256;
+	private static final int CONNECT_TIMEOUT = 60000;
+
+	private final int workers;
+	private final int chunkSize;
+	private transient List<String> jvmOptions = Collections.emptyList();
+
+	/**
+	 * Initializes a distributed for-loop executor.
+	 * The default is to use as many worker JVMs as there are CPU cores available.
+	 */
+	public DistributedParallelFor() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Initializes a distributed for-loop executor.
+	 * 
+	 * @param workers number of worker JVMs to start
+	 */
+	public DistributedParallelFor(int workers) {
+		this(workers, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Initializes a distributed for-loop executor.
+	 * 
+	 * @param workers number of worker JVMs to start
+	 * @param chunkSize number of elements to send to a worker at once
+	 */
+	public DistributedParallelFor(int workers, int chunkSize) {
+		if (workers < 1)
+			throw new IllegalArgumentException("must use at least one worker");
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunks must hold at least one element");
+
+		this.workers = workers;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Sets additional options for the worker JVMs, like <code>-Xmx4g</code>.
+	 * 
+	 * @param options to be passed to the <code>java</code> command
+	 */
+	public void setJvmOptions(String... options) {
+		jvmOptions = Arrays.asList(options.clone());
+	}
+
+	/**
+	 * Performs a distributed iteration of the specified step over the given
+	 * {@link Iterable}.
+	 * This method starts the worker JVMs, and returns once all steps have
+	 * finished and the workers have been shut down.
+	 * 
+	 * @param iteration to be iterated over
+	 * @throws RuntimeException rethrows an exception that may be thrown by a step.
+	 * 		In case more than one step throws an exception, the first in the order
+	 * 		of iteration is the one to be rethrown.
+	 * 		Failures of the workers themselves are reported as well.
+	 */
+	public void iterate(Iterable<T> iteration) throws RuntimeException {
+		String token = Long.toHexString(new SecureRandom().nextLong());
+		List<Process> processes = new ArrayList<>();
+		ExecutorService exec = Executors.newFixedThreadPool(workers);
+		try (ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+			server.setSoTimeout(CONNECT_TIMEOUT);
+			for (int w = 0; w < workers; w++)
+				processes.add(startWorker(server.getLocalPort(), token));
+
+			Chunks chunks = new Chunks(iteration.iterator());
+			List<Future<Failure>> failures = new ArrayList<>();
+			for (int w = 0; w < workers; w++)
+				failures.add(exec.submit(accept(server, token, chunks)));
+
+			Failure first = null;
+			for (Future<Failure> f : failures) {
+				Failure failure = f.get();
+				if (failure != null && (first == null || failure.index < first.index))
+					first = failure;
+			}
+			if (first != null)
+				throwUnchecked(first.cause);
+		} catch (IOException e) {
+			throw new RuntimeException("cannot communicate with workers", e);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("exception waiting for result of iteration", ie);
+		} catch (ExecutionException ee) {
+			throwUnchecked(ee.getCause());
+		} finally {
+			exec.shutdownNow();
+			for (Process p : processes)
+				p.destroy();
+		}
+	}
+
+	private Process startWorker(int port, String token) throws IOException {
+		List<String> cmd = new ArrayList<>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		cmd.addAll(jvmOptions);
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(DistributedWorker.class.getName());
+		cmd.add(Integer.toString(port));
+		cmd.add(token);
+		return new ProcessBuilder(cmd).inheritIO().start();
+	}
+
+	private Connection accept(ServerSocket server, String token, Chunks chunks) throws IOException {
+		while (true) {
+			Socket s = server.accept();
+			try {
+				// do not let a silent client block the handshake
+				s.setSoTimeout(CONNECT_TIMEOUT);
+				ObjectInputStream in = new ObjectInputStream(s.getInputStream());
+				if (token.equals(in.readUTF())) {
+					// steps may take arbitrarily long
+					s.setSoTimeout(0);
+					return new Connection(s, in, chunks);
+				}
+			} catch (IOException e) {
+				// the handshake failed or timed out
+			}
+			// not one of our workers
+			s.close();
+		}
+	}
+
+	private static void throwUnchecked(Throwable t) {
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		else if (t instanceof Error)
+			throw (Error) t;
+		else
+			throw new RuntimeException(t);
+	}
+
+	/**
+	 * Implements one step of an iteration.
+	 * This method contains what would usually be contained in the body of a regular for-loop.
+	 * It gets called in one of the worker JVMs.
+	 * 
+	 * @param item to be worked on
+	 */
+	public abstract void step(T item);
+
+	/**
+	 * Cuts the iteration into chunks on demand.
+	 */
+	private class Chunks {
+		private final Iterator<T> iterator;
+		private int index;
+
+		Chunks(Iterator<T> iterator) {
+			this.iterator = iterator;
+		}
+
+		/**
+		 * @return next chunk, or null if the iteration is exhausted
+		 */
+		synchronized Chunk next() {
+			if (!iterator.hasNext())
+				return null;
+
+			Chunk c = new Chunk(index, new ArrayList<Serializable>(chunkSize));
+			while (c.items.size() < chunkSize && iterator.hasNext())
+				c.items.add(iterator.next());
+			index += c.items.size();
+			return c;
+		}
+	}
+
+	/**
+	 * Feeds one worker with chunks, until the iteration is exhausted.
+	 */
+	private class Connection implements Callable<Failure> {
+		private final Socket socket;
+		private final ObjectInputStream in;
+		private final Chunks chunks;
+
+		Connection(Socket socket, ObjectInputStream in, Chunks chunks) {
+			this.socket = socket;
+			this.in = in;
+			this.chunks = chunks;
+		}
+
+		@Override
+		public Failure call() throws IOException, ClassNotFoundException {
+			try (Socket s = socket) {
+				ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
+				out.writeObject(DistributedParallelFor.this);
+
+				Failure first = null;
+				Chunk c;
+				while ((c = chunks.next()) != null) {
+					out.writeObject(c);
+					// do not keep references to chunks already sent
+					out.reset();
+					out.flush();
+					Failure f = (Failure) in.readObject();
+					if (f != null && first == null)
+						first = f;
+				}
+				out.writeObject(null);
+				out.flush();
+				return first;
+			}
+		}
+	}
+
+	/**
+	 * Consecutive elements of the iteration, as sent to a worker.
+	 */
+	static class Chunk implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final int index;
+		final List<Serializable> items;
+
+		Chunk(int index, List<Serializable> items) {
+			this.index = index;
+			this.items = items;
+		}
+	}
+
+	/**
+	 * The first exception thrown while working on a chunk, as sent back by
+	 * a worker.
+	 */
+	static class Failure implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final int index;
+		final Throwable cause;
+
+		Failure(int index, Throwable cause) {
+			this.index = index;
+			this.cause = cause;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package parallelfor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import parallelfor.DistributedParallelFor.Chunk;
+import parallelfor.DistributedParallelFor.Failure;
+
+/**
+ * Entry point of the worker JVMs started by {@link DistributedParallelFor}.
+ * It connects back to the calling JVM and executes the steps of all chunks
+ * it receives, until it is told to stop.
+ * 
+ * @author oreissig
+ */
+class DistributedWorker {
+
+	/**
+	 * @param args port to connect to and the token to identify with
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = Integer.parseInt(args[0]);
+		try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
+			out.writeUTF(args[1]);
+			out.flush();
+			ObjectInputStream in = new ObjectInputStream(s.getInputStream());
+
+			@SuppressWarnings("unchecked")
+			DistributedParallelFor<Serializable> loop = (DistributedParallelFor<Serializable>) in.readObject();
+			Chunk c;
+			while ((c = (Chunk) in.readObject()) != null) {
+				out.writeObject(work(loop, c));
+				out.reset();
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Works on all items of the chunk, even if some of them fail.
+	 * 
+	 * @return the first failure of the chunk, or null
+	 */
+	private static Failure work(DistributedParallelFor<Serializable> loop, Chunk c) {
+		Failure first = null;
+		for (int i = 0; i < c.items.size(); i++) {
+			try {
+				loop.step(c.items.get(i));
+			} catch (RuntimeException | Error e) {
+				if (first == null)
+					first = new Failure(c.index + i, transferable(e));
+			}
+		}
+		return first;
+	}
+
+	/**
+	 * Makes sure, that the exception can be sent to the calling JVM.
+	 */
+	private static Throwable transferable(Throwable t) {
+		try (ObjectOutputStream probe = new ObjectOutputStream(new ByteArrayOutputStream())) {
+			probe.writeObject(t);
+			return t;
+		} catch (IOException e) {
+			RuntimeException replacement = new RuntimeException(t.toString());
+			replacement.setStackTrace(t.getStackTrace());
+			return replacement;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package parallelfor;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Dispatches all steps to a single shared {@link ExecutorService}, so
+ * any worker may process any item.
+ * 
+ * @author oreissig
+ *
+ * @param <T> type of elements to be iterated over
+ */
+class ExecutorDispatcher<T> implements Dispatcher<T> {
+
+	private final ExecutorService exec;
+
+	ExecutorDispatcher(ExecutorService exec) {
+		this.exec = exec;
+	}
+
+	@Override
+	public int lanes() {
+		return 1;
+	}
+
+	@Override
+	public int lane(T item) {
+		return 0;
+	}
+
+	@Override
+	public void execute(int lane, Runnable step) {
+		exec.execute(step);
+	}
+
+	@Override
+	public void shutdown() {
+		exec.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return exec.shutdownNow();
+	}
+}
@@ -1,41 +1,248 @@
 package parallelfor;
 
+import java.io.Serializable;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 import com.google.common.collect.UnmodifiableIterator;
 
-public class IntRange implements Iterable<Integer> {
+/**
+ * An immutable arithmetic progression of ints, like the values of the
+ * counter of a regular for-loop.
+ * A positive step yields ascending values below the end, a negative step
+ * descending values above the end.
+ * <p>
+ * All queries are answered in constant time, so ranges can be split into
+ * sub-ranges cheaply by any parallel engine, see {@link #spliterator()}.
+ */
+public class IntRange implements Iterable<Integer>, Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	private final int start;
 	private final int end;
 	private final int step;
+	private final int size;
 
 	public IntRange(int start, int end) {
 		this(start, end, 1);
 	}
 
 	public IntRange(int start, int end, int step) {
+		if (step == 0)
+			throw new IllegalArgumentException("step must not be 0");
+
 		this.start = start;
 		this.end = end;
 		this.step = step;
+		long length = step > 0 ? (long) end - start : (long) start - end;
+		long stride = Math.abs((long) step);
+		long count = length <= 0 ? 0 : (length + stride - 1) / stride;
+		if (count > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("range holds more than " + Integer.MAX_VALUE + " values");
+		this.size = (int) count;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public int getStep() {
+		return step;
+	}
+
+	/**
+	 * @return number of values in this range
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param index of the value
+	 * @return the value at the given position
+	 * @throws IndexOutOfBoundsException if the index is not within
+	 *             <code>[0, size())</code>
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index " + index + " not in [0, " + size + ")");
+		return value(index);
+	}
+
+	private int value(int index) {
+		return (int) (start + (long) index * step);
+	}
+
+	/**
+	 * @param value to be looked up
+	 * @return position of the value, or -1 if it is not contained
+	 */
+	public int indexOf(int value) {
+		long offset = (long) value - start;
+		if (offset % step != 0)
+			return -1;
+		long index = offset / step;
+		return index >= 0 && index < size ? (int) index : -1;
+	}
+
+	/**
+	 * @param value to be looked up
+	 * @return whether this range contains the given value
+	 */
+	public boolean contains(int value) {
+		return indexOf(value) >= 0;
+	}
+
+	/**
+	 * Returns the values between the given positions as a range with the
+	 * same step.
+	 *
+	 * @param fromIndex position of the first value (inclusive)
+	 * @param toIndex position of the last value (exclusive)
+	 * @return the sub-range
+	 * @throws IndexOutOfBoundsException if the positions are not within
+	 *             <code>[0, size()]</code> or out of order
+	 */
+	public IntRange subRange(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("[" + fromIndex + ", " + toIndex
+					+ ") not in [0, " + size + ")");
+		// the position after the last value may not be representable
+		int to = toIndex == size ? end : value(toIndex);
+		if (fromIndex == toIndex)
+			return new IntRange(to, to, step);
+		return new IntRange(value(fromIndex), to, step);
 	}
 
 	@Override
 	public Iterator<Integer> iterator() {
 		return new UnmodifiableIterator<Integer>() {
-			private int current = start;
+			private int index = 0;
 
 			@Override
 			public boolean hasNext() {
-				return current < end;
+				return index < size;
 			}
 
 			@Override
 			public Integer next() {
-				int next = current;
-				current += step;
-				return next;
+				if (index >= size)
+					throw new NoSuchElementException();
+				return value(index++);
 			}
 		};
 	}
+
+	/**
+	 * Returns a {@link Spliterator}, that splits this range in halves in
+	 * constant time, without iterating over it.
+	 */
+	@Override
+	public Spliterator.OfInt spliterator() {
+		return new RangeSpliterator(0, size);
+	}
+
+	/**
+	 * Returns the values of this range as a sequential stream, which can
+	 * be turned into an efficiently splitting parallel stream via
+	 * {@link IntStream#parallel()}.
+	 *
+	 * @return stream of all values
+	 */
+	public IntStream intStream() {
+		return StreamSupport.intStream(spliterator(), false);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof IntRange))
+			return false;
+		IntRange other = (IntRange) obj;
+		if (size == 0 || other.size == 0)
+			return size == other.size;
+		return start == other.start && size == other.size
+				&& (size == 1 || step == other.step);
+	}
+
+	@Override
+	public int hashCode() {
+		if (size == 0)
+			return 0;
+		int result = 31 * start + size;
+		return size == 1 ? result : 31 * result + step;
+	}
+
+	@Override
+	public String toString() {
+		return "IntRange [start=" + start + ", end=" + end + ", step=" + step + "]";
+	}
+
+	private class RangeSpliterator implements Spliterator.OfInt {
+		private int index;
+		private final int fence;
+
+		RangeSpliterator(int index, int fence) {
+			this.index = index;
+			this.fence = fence;
+		}
+
+		@Override
+		public boolean tryAdvance(IntConsumer action) {
+			if (index >= fence)
+				return false;
+			action.accept(value(index++));
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(IntConsumer action) {
+			int i = index;
+			index = fence;
+			for (; i < fence; i++)
+				action.accept(value(i));
+		}
+
+		@Override
+		public Spliterator.OfInt trySplit() {
+			int lo = index, mid = (lo + fence) >>> 1;
+			if (lo >= mid)
+				return null;
+			index = mid;
+			return new RangeSpliterator(lo, mid);
+		}
+
+		@Override
+		public long estimateSize() {
+			return fence - index;
+		}
+
+		@Override
+		public int characteristics() {
+			int c = ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL | DISTINCT;
+			return step > 0 ? c | SORTED : c;
+		}
+
+		@Override
+		public Comparator<? super Integer> getComparator() {
+			if (step > 0)
+				return null;
+			throw new IllegalStateException();
+		}
+	}
 }
@@ -0,0 +1,165 @@
+package parallelfor;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.common.collect.UnmodifiableIterator;
+
+/**
+ * A two-dimensional range of row and column indices, that is cut into
+ * rectangular tiles, like the nested counters of a loop over a matrix or
+ * an image.
+ * Iterating yields the tiles in row-major order, so passing this range to
+ * {@link ParallelFor#iterate(Iterable)} makes each step process one
+ * cache-sized block, instead of whole rows.
+ * 
+ * @see IntRangeND
+ */
+public class IntRange2D implements Iterable<IntRange2D.Tile> {
+
+	/**
+	 * typical size of the L1 data cache
+	 */
+	public static final int L1_CACHE = 32 * 1024;
+
+	private final IntRange rows;
+	private final IntRange cols;
+	private final int tileRows;
+	private final int tileCols;
+	private final int tilesPerRow;
+	private final int size;
+
+	/**
+	 * @param rows number of rows, starting at 0
+	 * @param cols number of columns, starting at 0
+	 * @param tileRows number of rows per tile
+	 * @param tileCols number of columns per tile
+	 */
+	public IntRange2D(int rows, int cols, int tileRows, int tileCols) {
+		this(new IntRange(0, rows), new IntRange(0, cols), tileRows, tileCols);
+	}
+
+	/**
+	 * @param rows range of row indices
+	 * @param cols range of column indices
+	 * @param tileRows number of rows per tile
+	 * @param tileCols number of columns per tile
+	 */
+	public IntRange2D(IntRange rows, IntRange cols, int tileRows, int tileCols) {
+		if (tileRows < 1 || tileCols < 1)
+			throw new IllegalArgumentException("tiles must not be empty");
+
+		this.rows = rows;
+		this.cols = cols;
+		this.tileRows = tileRows;
+		this.tileCols = tileCols;
+		int tilesPerCol = tiles(rows.size(), tileRows);
+		this.tilesPerRow = tiles(cols.size(), tileCols);
+		long count = (long) tilesPerCol * tilesPerRow;
+		if (count > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("range holds more than " + Integer.MAX_VALUE + " tiles");
+		this.size = (int) count;
+	}
+
+	static int tiles(int length, int tile) {
+		return (int) (((long) length + tile - 1) / tile);
+	}
+
+	/**
+	 * Creates a range with square tiles, that fit into the given cache.
+	 * 
+	 * @param rows number of rows, starting at 0
+	 * @param cols number of columns, starting at 0
+	 * @param elementBytes size of each element
+	 * @param cacheBytes size of the cache, like {@link #L1_CACHE}
+	 * @return tiled range
+	 */
+	public static IntRange2D forCache(int rows, int cols, int elementBytes, int cacheBytes) {
+		int side = (int) Math.sqrt((double) cacheBytes / elementBytes);
+		// keep rows of whole vector registers where possible
+		if (side >= 16)
+			side &= ~7;
+		side = Math.max(1, side);
+		return new IntRange2D(rows, cols, side, side);
+	}
+
+	public IntRange getRows() {
+		return rows;
+	}
+
+	public IntRange getCols() {
+		return cols;
+	}
+
+	/**
+	 * @return number of tiles
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index of the tile in row-major order
+	 * @return the tile at the given position
+	 */
+	public Tile getTile(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index " + index + " not in [0, " + size + ")");
+		int r = index / tilesPerRow * tileRows;
+		int c = index % tilesPerRow * tileCols;
+		// bound the tile's length, as r + tileRows may overflow
+		return new Tile(rows.subRange(r, r + Math.min(tileRows, rows.size() - r)),
+				cols.subRange(c, c + Math.min(tileCols, cols.size() - c)));
+	}
+
+	@Override
+	public Iterator<Tile> iterator() {
+		return new UnmodifiableIterator<Tile>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public Tile next() {
+				if (index >= size)
+					throw new NoSuchElementException();
+				return getTile(index++);
+			}
+		};
+	}
+
+	/**
+	 * A block of the range, which is meant to be traversed row by row.
+	 */
+	public static class Tile {
+		private final IntRange rows;
+		private final IntRange cols;
+
+		Tile(IntRange rows, IntRange cols) {
+			this.rows = rows;
+			this.cols = cols;
+		}
+
+		/**
+		 * @return row indices of this tile
+		 */
+		public IntRange getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return column indices of this tile
+		 */
+		public IntRange getCols() {
+			return cols;
+		}
+
+		@Override
+		public String toString() {
+			return "Tile [rows=" + rows + ", cols=" + cols + "]";
+		}
+	}
+}
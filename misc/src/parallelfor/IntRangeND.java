@@ -0,0 +1,154 @@
+package parallelfor;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.common.collect.UnmodifiableIterator;
+
+/**
+ * An N-dimensional range of indices, that is cut into blocks, like the
+ * nested counters of a loop over a multi-dimensional array.
+ * Iterating yields the blocks in row-major order, i.e. the last dimension
+ * changes fastest, so passing this range to
+ * {@link ParallelFor#iterate(Iterable)} makes each step process one
+ * cache-sized block.
+ * 
+ * @see IntRange2D
+ */
+public class IntRangeND implements Iterable<IntRangeND.Tile> {
+
+	private final IntRange[] ranges;
+	private final int[] tileSize;
+	private final int[] tiles;
+	private final int size;
+
+	/**
+	 * @param lengths number of indices per dimension, starting at 0
+	 * @param tileSize number of indices per tile and dimension
+	 */
+	public IntRangeND(int[] lengths, int[] tileSize) {
+		this(ranges(lengths), tileSize);
+	}
+
+	/**
+	 * @param ranges of indices per dimension
+	 * @param tileSize number of indices per tile and dimension
+	 */
+	public IntRangeND(IntRange[] ranges, int[] tileSize) {
+		if (ranges.length != tileSize.length)
+			throw new IllegalArgumentException("tile has " + tileSize.length
+					+ " dimensions instead of " + ranges.length);
+
+		this.ranges = ranges.clone();
+		this.tileSize = tileSize.clone();
+		this.tiles = new int[ranges.length];
+		long count = 1;
+		for (int d = 0; d < ranges.length; d++) {
+			if (tileSize[d] < 1)
+				throw new IllegalArgumentException("tiles must not be empty");
+			tiles[d] = IntRange2D.tiles(ranges[d].size(), tileSize[d]);
+			count = Math.min(count * tiles[d], Integer.MAX_VALUE + 1L);
+		}
+		if (count > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("range holds more than " + Integer.MAX_VALUE + " tiles");
+		this.size = (int) count;
+	}
+
+	private static IntRange[] ranges(int[] lengths) {
+		IntRange[] ranges = new IntRange[lengths.length];
+		for (int d = 0; d < lengths.length; d++)
+			ranges[d] = new IntRange(0, lengths[d]);
+		return ranges;
+	}
+
+	/**
+	 * @return number of dimensions
+	 */
+	public int getDimensions() {
+		return ranges.length;
+	}
+
+	/**
+	 * @param dimension index of the dimension
+	 * @return range of indices of the given dimension
+	 */
+	public IntRange getRange(int dimension) {
+		return ranges[dimension];
+	}
+
+	/**
+	 * @return number of tiles
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index of the tile in row-major order
+	 * @return the tile at the given position
+	 */
+	public Tile getTile(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index " + index + " not in [0, " + size + ")");
+		IntRange[] block = new IntRange[ranges.length];
+		for (int d = ranges.length - 1; d >= 0; d--) {
+			int from = index % tiles[d] * tileSize[d];
+			index /= tiles[d];
+			// bound the tile's length, as from + tileSize[d] may overflow
+			block[d] = ranges[d].subRange(from, from + Math.min(tileSize[d], ranges[d].size() - from));
+		}
+		return new Tile(block);
+	}
+
+	@Override
+	public Iterator<Tile> iterator() {
+		return new UnmodifiableIterator<Tile>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public Tile next() {
+				if (index >= size)
+					throw new NoSuchElementException();
+				return getTile(index++);
+			}
+		};
+	}
+
+	/**
+	 * A block of the range, which is meant to be traversed in row-major
+	 * order.
+	 */
+	public static class Tile {
+		private final IntRange[] ranges;
+
+		Tile(IntRange[] ranges) {
+			this.ranges = ranges;
+		}
+
+		/**
+		 * @return number of dimensions
+		 */
+		public int getDimensions() {
+			return ranges.length;
+		}
+
+		/**
+		 * @param dimension index of the dimension
+		 * @return indices of this tile in the given dimension
+		 */
+		public IntRange getRange(int dimension) {
+			return ranges[dimension];
+		}
+
+		@Override
+		public String toString() {
+			return "Tile " + Arrays.toString(ranges);
+		}
+	}
+}
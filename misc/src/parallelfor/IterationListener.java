@@ -0,0 +1,20 @@
+package parallelfor;
+
+/**
+ * Receives the execution metrics of parallel loops.
+ * 
+ * @author oreissig
+ * 
+ * @see ParallelFor#addIterationListener(IterationListener)
+ * @see CheckedParallelFor#addIterationListener(IterationListener)
+ */
+public interface IterationListener {
+
+	/**
+	 * Gets called once per iteration, after all steps have finished,
+	 * but before an exception thrown by a step is rethrown.
+	 * 
+	 * @param statistics metrics of the finished iteration
+	 */
+	void iterationCompleted(IterationStatistics statistics);
+}
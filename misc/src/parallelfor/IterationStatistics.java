@@ -0,0 +1,172 @@
+package parallelfor;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the metrics of one parallel iteration.
+ * All times are given in nanoseconds.
+ * 
+ * @author oreissig
+ */
+public final class IterationStatistics {
+
+	/**
+	 * number of buckets of the latency histogram
+	 */
+	static final int BUCKETS = 64;
+
+	private final long steps;
+	private final long failures;
+	private final int workers;
+	private final long wallTime;
+	private final long cpuTime;
+	private final long busyTime;
+	private final long queueWait;
+	private final long maxQueueWait;
+	private final long[] histogram;
+
+	IterationStatistics(long steps, long failures, int workers, long wallTime,
+			long cpuTime, long busyTime, long queueWait, long maxQueueWait,
+			long[] histogram) {
+		this.steps = steps;
+		this.failures = failures;
+		this.workers = workers;
+		this.wallTime = wallTime;
+		this.cpuTime = cpuTime;
+		this.busyTime = busyTime;
+		this.queueWait = queueWait;
+		this.maxQueueWait = maxQueueWait;
+		this.histogram = histogram;
+	}
+
+	static int bucket(long latency) {
+		return latency <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(latency);
+	}
+
+	/**
+	 * @return number of steps, that have been executed
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return number of steps, that have thrown an exception
+	 */
+	public long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return number of worker threads; for unlimited loops this is the
+	 *         peak number of concurrently running steps
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * @return elapsed time of the whole iteration
+	 */
+	public long getWallTime() {
+		return wallTime;
+	}
+
+	/**
+	 * @return CPU time spent in all steps, or -1 if CPU time measurement is
+	 *         not supported by this JVM
+	 */
+	public long getCpuTime() {
+		return cpuTime;
+	}
+
+	/**
+	 * @return time spent in all steps
+	 */
+	public long getBusyTime() {
+		return busyTime;
+	}
+
+	/**
+	 * @return time all steps spent queued before they started
+	 */
+	public long getQueueWait() {
+		return queueWait;
+	}
+
+	/**
+	 * @return longest time a single step spent queued before it started
+	 */
+	public long getMaxQueueWait() {
+		return maxQueueWait;
+	}
+
+	/**
+	 * @return average time a step spent queued before it started
+	 */
+	public double getMeanQueueWait() {
+		return steps == 0 ? 0 : (double) queueWait / steps;
+	}
+
+	/**
+	 * @return fraction of the available worker time, that was spent in steps
+	 */
+	public double getUtilization() {
+		return ratio(busyTime);
+	}
+
+	/**
+	 * @return ratio of CPU time spent in steps to the available worker time,
+	 *         where 1 means perfect speedup; or -1 if CPU time measurement
+	 *         is not supported
+	 */
+	public double getParallelEfficiency() {
+		return cpuTime < 0 ? -1 : ratio(cpuTime);
+	}
+
+	private double ratio(long time) {
+		long available = wallTime * workers;
+		return available <= 0 ? 0 : (double) time / available;
+	}
+
+	/**
+	 * Returns the step latency histogram, where bucket <code>i</code> counts
+	 * the steps, that took between <code>2^i</code> (inclusive) and
+	 * <code>2^(i+1)</code> (exclusive) nanoseconds.
+	 * 
+	 * @return copy of the histogram buckets
+	 */
+	public long[] getLatencyHistogram() {
+		return histogram.clone();
+	}
+
+	/**
+	 * Estimates a step latency percentile from the histogram.
+	 * 
+	 * @param percentile between 0 and 100
+	 * @return upper bound of the histogram bucket containing the percentile
+	 */
+	public long getLatencyPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("percentile must be between 0 and 100");
+
+		long rank = (long) Math.ceil(steps * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+			if (seen >= rank && seen > 0)
+				return (1L << (i + 1)) - 1;
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return "IterationStatistics [steps=" + steps + ", failures="
+				+ failures + ", workers=" + workers + ", wallTime="
+				+ wallTime + ", cpuTime=" + cpuTime + ", busyTime="
+				+ busyTime + ", queueWait=" + queueWait + ", maxQueueWait="
+				+ maxQueueWait + ", histogram=" + Arrays.toString(histogram)
+				+ "]";
+	}
+}
@@ -0,0 +1,37 @@
+package parallelfor;
+
+/**
+ * Management interface of {@link JmxIterationListener}, which exposes the
+ * metrics of a parallel loop via JMX.
+ * The <code>Last*</code> attributes refer to the most recent iteration.
+ * 
+ * @author oreissig
+ */
+public interface IterationStatisticsMXBean {
+
+	long getIterations();
+
+	long getTotalSteps();
+
+	long getTotalFailures();
+
+	long getLastSteps();
+
+	long getLastFailures();
+
+	int getLastWorkers();
+
+	long getLastWallTime();
+
+	long getLastCpuTime();
+
+	double getLastMeanQueueWait();
+
+	long getLastMaxQueueWait();
+
+	double getLastUtilization();
+
+	double getLastParallelEfficiency();
+
+	long[] getLastLatencyHistogram();
+}
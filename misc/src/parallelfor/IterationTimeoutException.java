@@ -0,0 +1,15 @@
+package parallelfor;
+
+/**
+ * Signals, that a step or a whole iteration has exceeded its time limit.
+ * 
+ * @author oreissig
+ */
+public class IterationTimeoutException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public IterationTimeoutException(String message) {
+		super(message);
+	}
+}
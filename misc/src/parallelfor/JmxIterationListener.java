@@ -0,0 +1,137 @@
+package parallelfor;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * An {@link IterationListener}, that publishes the metrics of the loops it
+ * is registered with as an MXBean.
+ * 
+ * @author oreissig
+ */
+public class JmxIterationListener implements IterationListener,
+		IterationStatisticsMXBean {
+
+	private static final IterationStatistics NONE = new IterationStatistics(
+			0, 0, 0, 0, 0, 0, 0, 0, new long[IterationStatistics.BUCKETS]);
+
+	private final AtomicLong iterations = new AtomicLong();
+	private final AtomicLong steps = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private volatile IterationStatistics last = NONE;
+	private ObjectName objectName;
+
+	/**
+	 * Registers this listener with the platform {@link MBeanServer}.
+	 * 
+	 * @param name to be used for the <code>name</code> key of the
+	 *            {@link ObjectName}
+	 * @throws JMException if registration fails
+	 */
+	public synchronized void register(String name) throws JMException {
+		if (objectName != null)
+			throw new IllegalStateException("already registered as " + objectName);
+
+		ObjectName on = new ObjectName("parallelfor:type=ParallelFor,name="
+				+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+		objectName = on;
+	}
+
+	/**
+	 * Unregisters this listener from the platform {@link MBeanServer}, if
+	 * it has been registered before.
+	 * 
+	 * @throws JMException if unregistration fails
+	 */
+	public synchronized void unregister() throws JMException {
+		if (objectName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	@Override
+	public void iterationCompleted(IterationStatistics statistics) {
+		iterations.incrementAndGet();
+		steps.addAndGet(statistics.getSteps());
+		failures.addAndGet(statistics.getFailures());
+		last = statistics;
+	}
+
+	/**
+	 * @return metrics of the most recent iteration
+	 */
+	public IterationStatistics getLastStatistics() {
+		return last;
+	}
+
+	@Override
+	public long getIterations() {
+		return iterations.get();
+	}
+
+	@Override
+	public long getTotalSteps() {
+		return steps.get();
+	}
+
+	@Override
+	public long getTotalFailures() {
+		return failures.get();
+	}
+
+	@Override
+	public long getLastSteps() {
+		return last.getSteps();
+	}
+
+	@Override
+	public long getLastFailures() {
+		return last.getFailures();
+	}
+
+	@Override
+	public int getLastWorkers() {
+		return last.getWorkers();
+	}
+
+	@Override
+	public long getLastWallTime() {
+		return last.getWallTime();
+	}
+
+	@Override
+	public long getLastCpuTime() {
+		return last.getCpuTime();
+	}
+
+	@Override
+	public double getLastMeanQueueWait() {
+		return last.getMeanQueueWait();
+	}
+
+	@Override
+	public long getLastMaxQueueWait() {
+		return last.getMaxQueueWait();
+	}
+
+	@Override
+	public double getLastUtilization() {
+		return last.getUtilization();
+	}
+
+	@Override
+	public double getLastParallelEfficiency() {
+		return last.getParallelEfficiency();
+	}
+
+	@Override
+	public long[] getLastLatencyHistogram() {
+		return last.getLatencyHistogram();
+	}
+}
@@ -0,0 +1,65 @@
+package parallelfor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Function;
+
+/**
+ * Dispatches the steps of all items with the same key to the same
+ * single-threaded worker, so that they are executed one after another in
+ * the order of iteration.
+ * 
+ * @author oreissig
+ *
+ * @param <T> type of elements to be iterated over
+ */
+class KeyAffinityDispatcher<T> implements Dispatcher<T> {
+
+	private final Function<? super T, ?> keyExtractor;
+	private final ExecutorService[] workers;
+
+	KeyAffinityDispatcher(Function<? super T, ?> keyExtractor, int threads) {
+		this.keyExtractor = keyExtractor;
+		this.workers = new ExecutorService[threads];
+		for (int i = 0; i < threads; i++)
+			workers[i] = Executors.newSingleThreadExecutor();
+	}
+
+	@Override
+	public int lanes() {
+		return workers.length;
+	}
+
+	@Override
+	public int lane(T item) {
+		Object key = keyExtractor.apply(item);
+		if (key == null)
+			return 0;
+		// spread the bits like HashMap does, as keys often have poor hashes
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return (h & Integer.MAX_VALUE) % workers.length;
+	}
+
+	@Override
+	public void execute(int lane, Runnable step) {
+		workers[lane].execute(step);
+	}
+
+	@Override
+	public void shutdown() {
+		for (ExecutorService w : workers)
+			w.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> neverStarted = new ArrayList<>();
+		for (ExecutorService w : workers)
+			neverStarted.addAll(w.shutdownNow());
+		return neverStarted;
+	}
+}
@@ -0,0 +1,431 @@
+package parallelfor;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the steps of one running iteration and completes, once all of
+ * them have finished, without any thread waiting for it.
+ * If steps fail, it completes exceptionally with the failure of the step,
+ * that comes first in the order of iteration.
+ * 
+ * @author oreissig
+ */
+class Loop extends CompletableFuture<Void> {
+
+	private final Dispatcher<?> dispatcher;
+	private final StatisticsRecorder recorder;
+	private final List<IterationListener> listeners;
+	private final int threads;
+	// one extra for the submission phase
+	private final AtomicInteger pending = new AtomicInteger(1);
+	private int failedSlot = Integer.MAX_VALUE;
+	private Throwable failure;
+	private long stepTimeout;
+	private TimeoutPolicy timeoutPolicy;
+	private int maxRetries;
+	private volatile ScheduledFuture<?> deadline;
+
+	/**
+	 * @param dispatcher to run the steps on
+	 * @param listeners to be notified about the statistics, or an empty list
+	 *            to skip instrumentation
+	 * @param threads configured number of threads
+	 */
+	Loop(Dispatcher<?> dispatcher, List<IterationListener> listeners, int threads) {
+		this.dispatcher = dispatcher;
+		this.listeners = listeners;
+		this.recorder = listeners.isEmpty() ? null : new StatisticsRecorder();
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the time limits of this loop; must be called before the first
+	 * step is submitted.
+	 * 
+	 * @param stepTimeout maximum duration of a step in nanoseconds, or 0
+	 * @param policy what to do with steps exceeding their timeout
+	 * @param retries maximum number of retries for {@link TimeoutPolicy#RETRY}
+	 * @param timeout maximum duration of the whole loop in nanoseconds, or 0
+	 */
+	void limit(long stepTimeout, TimeoutPolicy policy, int retries, final long timeout) {
+		this.stepTimeout = stepTimeout;
+		this.timeoutPolicy = policy;
+		this.maxRetries = retries;
+		if (timeout > 0) {
+			final Runnable expire = new Runnable() {
+				@Override
+				public void run() {
+					if (completeExceptionally(new IterationTimeoutException(
+							"iteration exceeded its deadline of " + timeout + "ns")))
+						abort();
+				}
+			};
+			deadline = Watchdog.INSTANCE.schedule(new Runnable() {
+				@Override
+				public void run() {
+					// completing runs the caller's continuations
+					ForkJoinPool.commonPool().execute(expire);
+				}
+			}, timeout, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Enqueues a step.
+	 * 
+	 * @param lane of the {@link Dispatcher} to run the step on
+	 * @param slot position of the step in the order of iteration
+	 * @param call the step itself
+	 */
+	void submit(int lane, int slot, Callable<Void> call) {
+		submit(lane, new Step(lane, slot, call, 0, false));
+	}
+
+	/**
+	 * Enqueues a step covering several items, which runs each of them via
+	 * {@link #runItem(int, Callable)}, so they are instrumented and limited
+	 * one by one instead of as a whole.
+	 * 
+	 * @param lane of the {@link Dispatcher} to run the chunk on
+	 * @param slot position of the chunk's first item in the order of iteration
+	 * @param chunk the step itself
+	 */
+	void submitChunk(int lane, int slot, Callable<Void> chunk) {
+		submit(lane, new Step(lane, slot, chunk, 0, true));
+	}
+
+	private void submit(int lane, Step step) {
+		pending.incrementAndGet();
+		try {
+			dispatcher.execute(lane, step);
+		} catch (RejectedExecutionException e) {
+			// the loop has been aborted meanwhile
+			countDown();
+			throw e;
+		}
+	}
+
+	/**
+	 * Prepares the work for one item of a chunk, which has to be done while
+	 * submitting the chunk, so the time the item waits in the chunk counts as
+	 * queueing.
+	 * 
+	 * @param call the work for the item
+	 * @return the work to pass to {@link #runItem(int, Callable)}
+	 */
+	Callable<Void> instrument(Callable<Void> call) {
+		return recorder == null ? call : recorder.instrument(call);
+	}
+
+	/**
+	 * Runs one item of a chunk like a step of its own: its failure is
+	 * recorded and it is limited by the step timeout, which is handled
+	 * according to the timeout policy, where retries are run in place.
+	 * 
+	 * @param slot position of the item in the order of iteration
+	 * @param call the work for the item, see {@link #instrument(Callable)}
+	 * @return false if the loop has finished or the chunk got interrupted,
+	 *         so the remaining items of the chunk have to be dropped
+	 */
+	boolean runItem(int slot, Callable<Void> call) {
+		for (int attempt = 0;; attempt++) {
+			if (isDone() || Thread.currentThread().isInterrupted())
+				return false;
+
+			ItemWatch watch = stepTimeout > 0 ? new ItemWatch() : null;
+			Throwable error = null;
+			try {
+				call.call();
+			} catch (Exception | Error e) {
+				error = e;
+			}
+			if (watch == null || !watch.stop()) {
+				if (error != null)
+					fail(slot, error);
+				return true;
+			}
+
+			if (timeoutPolicy == TimeoutPolicy.SKIP)
+				return true;
+			if (timeoutPolicy == TimeoutPolicy.RETRY && attempt < maxRetries)
+				continue;
+			fail(slot, timeoutFailure(attempt));
+			return true;
+		}
+	}
+
+	private IterationTimeoutException timeoutFailure(int attempt) {
+		return new IterationTimeoutException("step exceeded its timeout of "
+				+ stepTimeout + "ns after " + (attempt + 1) + " attempt(s)");
+	}
+
+	/**
+	 * Runs a short task on the timer thread, that enforces the time limits.
+	 *
+	 * @param task to be run, which must not block
+	 * @param delay in nanoseconds
+	 * @return handle to cancel the task
+	 */
+	ScheduledFuture<?> schedule(Runnable task, long delay) {
+		return Watchdog.INSTANCE.schedule(task, delay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records a failure, that happened outside of a step.
+	 * 
+	 * @param slot position of the failure in the order of iteration
+	 * @param cause of the failure
+	 */
+	synchronized void fail(int slot, Throwable cause) {
+		if (slot < failedSlot) {
+			failedSlot = slot;
+			failure = cause;
+		}
+	}
+
+	/**
+	 * Signals, that no more steps will be submitted.
+	 */
+	void submitted() {
+		countDown();
+	}
+
+	private void countDown() {
+		if (pending.decrementAndGet() == 0)
+			finish();
+	}
+
+	private void finish() {
+		// retries are submitted until now
+		dispatcher.shutdown();
+		ScheduledFuture<?> d = deadline;
+		if (d != null)
+			d.cancel(false);
+
+		Throwable cause;
+		synchronized (this) {
+			cause = failure;
+		}
+		try {
+			if (recorder != null) {
+				IterationStatistics stats = recorder.finish(threads);
+				for (IterationListener l : listeners) {
+					try {
+						l.iterationCompleted(stats);
+					} catch (RuntimeException | Error e) {
+						// one listener must neither starve the others nor the loop
+						uncaught(e);
+					}
+				}
+			}
+		} catch (RuntimeException | Error e) {
+			uncaught(e);
+		} finally {
+			if (cause == null)
+				complete(null);
+			else
+				completeExceptionally(cause);
+		}
+	}
+
+	/**
+	 * Reports a failure of the instrumentation, that must not affect the
+	 * outcome of the iteration itself.
+	 */
+	private static void uncaught(Throwable t) {
+		Thread current = Thread.currentThread();
+		current.getUncaughtExceptionHandler().uncaughtException(current, t);
+	}
+
+	/**
+	 * Cancels this iteration by interrupting all running steps and dropping
+	 * all steps, that have not been started yet.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		abort();
+		return cancelled;
+	}
+
+	private void abort() {
+		for (Runnable r : dispatcher.shutdownNow())
+			((Future<?>) r).cancel(false);
+	}
+
+	private class Step extends FutureTask<Void> {
+		private final int lane;
+		private final int slot;
+		private final Callable<Void> call;
+		private final int attempt;
+		private final boolean chunk;
+		private volatile boolean started;
+		private volatile boolean timedOut;
+
+		Step(int lane, int slot, Callable<Void> call, int attempt, boolean chunk) {
+			// chunks instrument and limit their items themselves
+			super(chunk ? call : instrument(call));
+			this.lane = lane;
+			this.slot = slot;
+			this.call = call;
+			this.attempt = attempt;
+			this.chunk = chunk;
+		}
+
+		@Override
+		public void run() {
+			started = true;
+			ScheduledFuture<?> watch = null;
+			if (!chunk && stepTimeout > 0) {
+				watch = Watchdog.INSTANCE.schedule(new Runnable() {
+					@Override
+					public void run() {
+						timedOut = true;
+						cancel(true);
+					}
+				}, stepTimeout, TimeUnit.NANOSECONDS);
+			}
+			try {
+				super.run();
+			} finally {
+				if (watch != null)
+					watch.cancel(false);
+				// only now the body has returned, even if it has been cancelled
+				finished();
+			}
+		}
+
+		@Override
+		protected void done() {
+			// steps dropped by abort() are never run
+			if (!started) {
+				fail(slot, new CancellationException());
+				countDown();
+			}
+		}
+
+		private void finished() {
+			try {
+				get();
+			} catch (CancellationException ce) {
+				if (timedOut) {
+					// the interrupt of the timeout must not hit the next step
+					Thread.interrupted();
+					timedOut();
+				} else {
+					fail(slot, ce);
+				}
+			} catch (ExecutionException ee) {
+				fail(slot, ee.getCause());
+			} catch (InterruptedException ie) {
+				// cannot happen, as the task is done already
+				Thread.currentThread().interrupt();
+			}
+			countDown();
+		}
+
+		private void timedOut() {
+			switch (timeoutPolicy) {
+			case SKIP:
+				break;
+			case RETRY:
+				if (!retry())
+					fail(slot, timeoutFailure(attempt));
+				break;
+			case FAIL:
+				fail(slot, timeoutFailure(attempt));
+				break;
+			}
+		}
+
+		/**
+		 * @return whether the step has been enqueued again, which fails if
+		 * 		no retries are left or the loop has been aborted meanwhile
+		 */
+		private boolean retry() {
+			if (attempt >= maxRetries || Loop.this.isDone())
+				return false;
+			pending.incrementAndGet();
+			try {
+				dispatcher.execute(lane, new Step(lane, slot, call, attempt + 1, false));
+				return true;
+			} catch (RejectedExecutionException e) {
+				pending.decrementAndGet();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Interrupts the thread running an item of a chunk, once the item
+	 * exceeds the step timeout.
+	 */
+	private class ItemWatch implements Runnable {
+		private final Thread worker = Thread.currentThread();
+		private final ScheduledFuture<?> timer;
+		private boolean running = true;
+		private boolean timedOut;
+
+		ItemWatch() {
+			timer = Watchdog.INSTANCE.schedule(this, stepTimeout, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public synchronized void run() {
+			if (running) {
+				timedOut = true;
+				worker.interrupt();
+			}
+		}
+
+		/**
+		 * Must be called by the worker, once the item has finished.
+		 * 
+		 * @return whether the item has timed out, in which case the
+		 *         interrupt is cleared again
+		 */
+		boolean stop() {
+			timer.cancel(false);
+			synchronized (this) {
+				running = false;
+			}
+			if (timedOut)
+				Thread.interrupted();
+			return timedOut;
+		}
+	}
+
+	/**
+	 * Lazily started timer thread, that enforces all time limits of all
+	 * loops. Its tasks only cancel or interrupt, anything that may block,
+	 * like completing a loop, is handed off to other threads.
+	 */
+	private static class Watchdog {
+		static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "parallelfor-watchdog");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+
+		static {
+			INSTANCE.setRemoveOnCancelPolicy(true);
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package parallelfor;
+
+/**
+ * Strategies for cost-aware scheduling of the steps of an iteration.
+ * 
+ * @author oreissig
+ *
+ * @see ParallelFor#setCostEstimator(CostEstimator, Scheduling)
+ * @see CheckedParallelFor#setCostEstimator(CostEstimator, Scheduling)
+ */
+public enum Scheduling {
+	/**
+	 * Submits the steps ordered by descending cost, so the most expensive
+	 * ones do not end up at the tail of the loop.
+	 */
+	LONGEST_FIRST,
+
+	/**
+	 * Packs the steps into one chunk per worker thread, so that all chunks
+	 * have about the same total cost, and submits each chunk as one task.
+	 * This avoids the per-step queueing overhead, but relies on accurate
+	 * estimates, as workers cannot steal from other chunks.
+	 */
+	BALANCED_CHUNKS
+}
@@ -0,0 +1,101 @@
+package parallelfor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the metrics of one iteration, while its steps are executed.
+ * 
+ * @author oreissig
+ */
+class StatisticsRecorder {
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final boolean cpuTime = THREADS.isCurrentThreadCpuTimeSupported()
+			&& THREADS.isThreadCpuTimeEnabled();
+	private final long start = System.nanoTime();
+	private final LongAdder steps = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder queueWait = new LongAdder();
+	private final AtomicLong maxQueueWait = new AtomicLong();
+	private final LongAdder busy = new LongAdder();
+	private final LongAdder cpu = new LongAdder();
+	private final AtomicLongArray histogram = new AtomicLongArray(IterationStatistics.BUCKETS);
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger peakActive = new AtomicInteger();
+
+	/**
+	 * Decorates a step, so that its execution gets recorded.
+	 * The queue wait time is measured from the time of this call.
+	 * 
+	 * @param step to be instrumented
+	 * @return instrumented step
+	 */
+	<V> Callable<V> instrument(final Callable<V> step) {
+		final long submitted = System.nanoTime();
+		return new Callable<V>() {
+			@Override
+			public V call() throws Exception {
+				long started = System.nanoTime();
+				long cpuStarted = cpuTime ? THREADS.getCurrentThreadCpuTime() : 0;
+				recordWait(started - submitted);
+				updatePeak(active.incrementAndGet());
+				boolean success = false;
+				try {
+					V result = step.call();
+					success = true;
+					return result;
+				} finally {
+					long latency = System.nanoTime() - started;
+					active.decrementAndGet();
+					steps.increment();
+					if (!success)
+						failures.increment();
+					busy.add(latency);
+					histogram.incrementAndGet(IterationStatistics.bucket(latency));
+					if (cpuTime)
+						cpu.add(THREADS.getCurrentThreadCpuTime() - cpuStarted);
+				}
+			}
+		};
+	}
+
+	private void recordWait(long wait) {
+		queueWait.add(wait);
+		long max;
+		do {
+			max = maxQueueWait.get();
+		} while (wait > max && !maxQueueWait.compareAndSet(max, wait));
+	}
+
+	private void updatePeak(int current) {
+		int peak;
+		do {
+			peak = peakActive.get();
+		} while (current > peak && !peakActive.compareAndSet(peak, current));
+	}
+
+	/**
+	 * Takes the final snapshot, once all steps have finished.
+	 * 
+	 * @param threads configured number of threads or
+	 *            {@link AbstractParallelFor#UNLIMITED}
+	 * @return metrics of the finished iteration
+	 */
+	IterationStatistics finish(int threads) {
+		long wall = System.nanoTime() - start;
+		int workers = threads == AbstractParallelFor.UNLIMITED ? peakActive.get() : threads;
+		long[] buckets = new long[histogram.length()];
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = histogram.get(i);
+		return new IterationStatistics(steps.sum(), failures.sum(), workers,
+				wall, cpuTime ? cpu.sum() : -1, busy.sum(), queueWait.sum(),
+				maxQueueWait.get(), buckets);
+	}
+}
@@ -0,0 +1,29 @@
+package parallelfor;
+
+/**
+ * Decides what happens to a step, that exceeds its timeout.
+ * 
+ * @author oreissig
+ *
+ * @see ParallelFor#setStepTimeout(long, java.util.concurrent.TimeUnit, TimeoutPolicy)
+ * @see CheckedParallelFor#setStepTimeout(long, java.util.concurrent.TimeUnit, TimeoutPolicy)
+ */
+public enum TimeoutPolicy {
+	/**
+	 * Interrupts the step and ignores its item.
+	 */
+	SKIP,
+
+	/**
+	 * Interrupts the step and enqueues it again, until the maximum number
+	 * of retries is reached; then the loop fails. As the step is enqueued
+	 * behind later items, this cannot be combined with key affinity.
+	 */
+	RETRY,
+
+	/**
+	 * Interrupts the step and lets the loop fail with an
+	 * {@link IterationTimeoutException}.
+	 */
+	FAIL
+}
@@ -0,0 +1,78 @@
+package zip;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Pool of direct {@link ByteBuffer}s in power-of-two size classes, so the
+ * costly allocation of native memory is amortized over many reads.
+ * Only small buffers are pooled, larger ones are allocated at their exact
+ * size, as rounding them up would waste more than pooling saves.
+ *
+ * @author oreissig
+ */
+class BufferPool {
+
+	private static final int MIN_SHIFT = 12;
+	private static final int MAX_SHIFT = 20;
+
+	private final long maxBytes;
+	// indexed by size class, starting with MIN_SHIFT
+	private final List<Queue<ByteBuffer>> free = new ArrayList<>();
+	private final AtomicLong pooledBytes = new AtomicLong();
+	// buffers handed out, which may be returned to the pool; these are not
+	// pinned, so buffers never released are still garbage collected
+	private final ConcurrentMap<ByteBuffer, Integer> lent = new MapMaker().weakKeys().makeMap();
+
+	/**
+	 * @param maxBytes total capacity of the unused buffers to keep
+	 */
+	BufferPool(long maxBytes) {
+		this.maxBytes = maxBytes;
+		for (int i = MIN_SHIFT; i <= MAX_SHIFT; i++)
+			free.add(new ConcurrentLinkedQueue<ByteBuffer>());
+	}
+
+	/**
+	 * @param size number of bytes needed
+	 * @return a direct buffer with at least the given capacity, whose limit
+	 *         is set to the given size
+	 */
+	ByteBuffer acquire(int size) {
+		int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(size - 1));
+		if (shift > MAX_SHIFT)
+			return ByteBuffer.allocateDirect(size);
+
+		ByteBuffer b = free.get(shift - MIN_SHIFT).poll();
+		if (b == null)
+			b = ByteBuffer.allocateDirect(1 << shift);
+		else
+			pooledBytes.addAndGet(-b.capacity());
+		b.clear().limit(size);
+		lent.put(b, shift);
+		return b;
+	}
+
+	/**
+	 * Returns a buffer to the pool. Buffers, that have not been handed out
+	 * by {@link #acquire(int)}, are ignored.
+	 *
+	 * @param buffer no longer in use
+	 */
+	void release(ByteBuffer buffer) {
+		Integer shift = lent.remove(buffer);
+		if (shift == null)
+			return;
+		if (pooledBytes.addAndGet(buffer.capacity()) <= maxBytes)
+			free.get(shift - MIN_SHIFT).offer(buffer);
+		else
+			pooledBytes.addAndGet(-buffer.capacity());
+	}
+}
@@ -0,0 +1,101 @@
+package zip;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.ZipException;
+
+/**
+ * An archive held in memory, like a nested archive or a downloaded one.
+ *
+ * @author oreissig
+ */
+class BufferSource extends ZipSource {
+
+	private final ByteBuffer buffer;
+	// the archive's buffer is handed back to its owner on close, if any
+	private ByteBuffer pooled;
+	private ZipMap owner;
+
+	/**
+	 * @param buffer holding the archive between its position and limit
+	 */
+	BufferSource(ByteBuffer buffer) {
+		this.buffer = buffer.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * @param buffer holding the archive between its position and limit,
+	 *            as returned by {@link ZipMap#getBuffer(String)}
+	 * @param owner to release the buffer to once this source is closed
+	 */
+	BufferSource(ByteBuffer buffer, ZipMap owner) {
+		this(buffer);
+		this.pooled = buffer;
+		this.owner = owner;
+	}
+
+	@Override
+	long size() {
+		return buffer.capacity();
+	}
+
+	@Override
+	void read(ByteBuffer dst, long position) throws ZipException {
+		ByteBuffer src = slice(position, Math.min(dst.remaining(), Math.max(0, size() - position)));
+		if (src.remaining() < dst.remaining())
+			throw new ZipException("unexpected end of archive");
+		dst.put(src);
+		dst.flip();
+	}
+
+	@Override
+	ByteBuffer slice(long position, long length) throws ZipException {
+		int len = checkLength(length);
+		if (position < 0 || position + len > buffer.capacity())
+			throw new ZipException("region exceeds the archive");
+		ByteBuffer b = buffer.duplicate();
+		b.position((int) position).limit((int) position + len);
+		return b.slice();
+	}
+
+	@Override
+	InputStream open(long position, long length) throws ZipException {
+		final ByteBuffer b = slice(position, length);
+		return new InputStream() {
+			@Override
+			public int read() {
+				return b.hasRemaining() ? b.get() & 0xFF : -1;
+			}
+
+			@Override
+			public int read(byte[] dst, int off, int len) {
+				if (!b.hasRemaining())
+					return -1;
+				len = Math.min(len, b.remaining());
+				b.get(dst, off, len);
+				return len;
+			}
+
+			@Override
+			public long skip(long n) {
+				int skipped = (int) Math.max(0, Math.min(n, b.remaining()));
+				b.position(b.position() + skipped);
+				return skipped;
+			}
+
+			@Override
+			public int available() {
+				return b.remaining();
+			}
+		};
+	}
+
+	@Override
+	public synchronized void close() {
+		if (owner != null) {
+			owner.releaseBuffer(pooled);
+			owner = null;
+			pooled = null;
+		}
+	}
+}
@@ -0,0 +1,352 @@
+package zip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipException;
+
+/**
+ * Index of the central directory of a zip archive.
+ * The directory is memory-mapped (or sliced) once and hashed into a compact
+ * open-addressing table, so looking up a name neither allocates nor
+ * touches any entry, but the one it finds.
+ * <p>
+ * ZIP64 archives are supported, so there is no limit on the number of
+ * entries, their sizes or their offsets, apart from the size of the
+ * central directory, which must not exceed 2GB.
+ *
+ * @author oreissig
+ */
+final class CentralDirectory {
+
+	static final int EOCD_SIG = 0x06054b50;
+	static final int CEN_SIG = 0x02014b50;
+	static final int LOC_SIG = 0x04034b50;
+	static final int EOCD_LEN = 22;
+	static final int CEN_LEN = 46;
+	static final int LOC_LEN = 30;
+	static final int ZIP64_EOCD_SIG = 0x06064b50;
+	static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	static final int ZIP64_EOCD_LEN = 56;
+	static final int ZIP64_LOCATOR_LEN = 20;
+	static final int ZIP64_EXTRA_ID = 0x0001;
+	// marks 32-bit fields, whose actual value is given in the ZIP64 extra field
+	static final int ZIP64_MAGIC = 0xFFFFFFFF;
+	// fields of a directory record in the order of the ZIP64 extra field:
+	// size, compressed size and local header offset
+	private static final int[] ZIP64_FIELDS = { 24, 20, 42 };
+	private static final int MAX_COMMENT = 0xFFFF;
+
+	private final ZipSource source;
+	private final ByteBuffer cd;
+	private final long base;
+	private final int[] records;
+	private final int[] hashes;
+	private final int[] table;
+	private final int mask;
+
+	private CentralDirectory(ZipSource source, ByteBuffer cd, long base, int count) throws ZipException {
+		this.source = source;
+		this.cd = cd;
+		this.base = base;
+		this.records = new int[count];
+		this.hashes = new int[count];
+		int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+		this.table = new int[capacity];
+		this.mask = capacity - 1;
+
+		int pos = 0;
+		for (int i = 0; i < count; i++) {
+			if (pos + CEN_LEN > cd.limit() || cd.getInt(pos) != CEN_SIG)
+				throw new ZipException("invalid central directory header at entry " + i);
+			records[i] = pos;
+			int nameLength = cd.getShort(pos + 28) & 0xFFFF;
+			int length = CEN_LEN + nameLength + (cd.getShort(pos + 30) & 0xFFFF)
+					+ (cd.getShort(pos + 32) & 0xFFFF);
+			// name, extra field and comment must not run past the directory
+			if (pos + length > cd.limit())
+				throw new ZipException("truncated central directory header at entry " + i);
+			int zip64Fields = zip64Fields(pos);
+			if (zip64Fields > 0 && zip64Extra(pos, zip64Fields) < 0)
+				throw new ZipException("invalid ZIP64 extra field at entry " + i);
+			int h = hash(pos + CEN_LEN, nameLength);
+			hashes[i] = h;
+			// later duplicates are shadowed by earlier ones, like in ZipFile
+			int slot = h & mask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+			table[slot] = i + 1;
+			pos += length;
+		}
+	}
+
+	/**
+	 * Locates and indexes the central directory of the given archive.
+	 *
+	 * @param source of the archive, which gets closed if it is corrupt
+	 * @return the index
+	 * @throws IOException if the archive cannot be read or is corrupt
+	 */
+	static CentralDirectory read(ZipSource source) throws IOException {
+		try {
+			return locate(source);
+		} catch (IOException | RuntimeException e) {
+			source.close();
+			throw e;
+		}
+	}
+
+	private static CentralDirectory locate(ZipSource source) throws IOException {
+		long size = source.size();
+		int tailLength = (int) Math.min(size, EOCD_LEN + MAX_COMMENT);
+		ByteBuffer tail = ByteBuffer.allocate(tailLength).order(ByteOrder.LITTLE_ENDIAN);
+		source.read(tail, size - tailLength);
+
+		for (int pos = tailLength - EOCD_LEN; pos >= 0; pos--) {
+			if (tail.getInt(pos) != EOCD_SIG)
+				continue;
+			long count = tail.getShort(pos + 10) & 0xFFFF;
+			long cdSize = tail.getInt(pos + 12) & 0xFFFFFFFFL;
+			long cdOffset = tail.getInt(pos + 16) & 0xFFFFFFFFL;
+			// the central directory ends where the END header(s) start
+			long end = size - tailLength + pos;
+			if (count == 0xFFFF || cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL) {
+				long zip64End = zip64End(source, end);
+				if (zip64End >= 0) {
+					ByteBuffer record = ByteBuffer.allocate(ZIP64_EOCD_LEN).order(ByteOrder.LITTLE_ENDIAN);
+					source.read(record, zip64End);
+					count = record.getLong(32);
+					cdSize = record.getLong(40);
+					cdOffset = record.getLong(48);
+					end = zip64End;
+				}
+			}
+			if (count > Integer.MAX_VALUE)
+				throw new ZipException("too many entries: " + count);
+			// the archive may be prefixed, like a self-extracting one
+			long cdStart = end - cdSize;
+			if (cdStart < 0 || cdSize < 0)
+				continue;
+			ByteBuffer cd = source.slice(cdStart, cdSize).order(ByteOrder.LITTLE_ENDIAN);
+			return new CentralDirectory(source, cd, cdStart - cdOffset, (int) count);
+		}
+		throw new ZipException("zip END header not found");
+	}
+
+	/**
+	 * Locates the ZIP64 END header via the locator preceding the END
+	 * header.
+	 *
+	 * @return position of the ZIP64 END header, or -1 if there is none
+	 */
+	private static long zip64End(ZipSource source, long eocd) throws IOException {
+		long locator = eocd - ZIP64_LOCATOR_LEN;
+		if (locator < ZIP64_EOCD_LEN)
+			return -1;
+		ByteBuffer loc = ByteBuffer.allocate(ZIP64_LOCATOR_LEN).order(ByteOrder.LITTLE_ENDIAN);
+		source.read(loc, locator);
+		if (loc.getInt(0) != ZIP64_LOCATOR_SIG)
+			return -1;
+		// the recorded position is off in prefixed archives, where the
+		// header is expected right before the locator instead
+		long[] candidates = { loc.getLong(8), locator - ZIP64_EOCD_LEN };
+		ByteBuffer sig = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		for (long candidate : candidates) {
+			if (candidate < 0 || candidate > locator - ZIP64_EOCD_LEN)
+				continue;
+			sig.clear();
+			source.read(sig, candidate);
+			if (sig.getInt(0) == ZIP64_EOCD_SIG)
+				return candidate;
+		}
+		throw new ZipException("ZIP64 END header not found");
+	}
+
+	/**
+	 * @return the archive, this is the index of
+	 */
+	ZipSource source() {
+		return source;
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	int size() {
+		return records.length;
+	}
+
+	/**
+	 * Looks up an entry by name.
+	 *
+	 * @param name of the entry
+	 * @return index of the entry, or -1 if there is none
+	 */
+	int find(CharSequence name) {
+		int h = hash(name);
+		for (int slot = h & mask;; slot = (slot + 1) & mask) {
+			int e = table[slot] - 1;
+			if (e < 0)
+				return -1;
+			if (hashes[e] == h && nameEquals(e, name))
+				return e;
+		}
+	}
+
+	String name(int entry) {
+		int pos = records[entry];
+		byte[] bytes = new byte[nameLength(entry)];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = cd.get(pos + CEN_LEN + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int nameLength(int entry) {
+		return cd.getShort(records[entry] + 28) & 0xFFFF;
+	}
+
+	int method(int entry) {
+		return cd.getShort(records[entry] + 10) & 0xFFFF;
+	}
+
+	long crc(int entry) {
+		return cd.getInt(records[entry] + 16) & 0xFFFFFFFFL;
+	}
+
+	long compressedSize(int entry) {
+		int pos = records[entry];
+		int value = cd.getInt(pos + 20);
+		return value == ZIP64_MAGIC ? zip64Value(pos, 20) : value & 0xFFFFFFFFL;
+	}
+
+	long size(int entry) {
+		int pos = records[entry];
+		int value = cd.getInt(pos + 24);
+		return value == ZIP64_MAGIC ? zip64Value(pos, 24) : value & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @return position of the local file header within the archive
+	 */
+	long localHeaderOffset(int entry) {
+		int pos = records[entry];
+		int value = cd.getInt(pos + 42);
+		return base + (value == ZIP64_MAGIC ? zip64Value(pos, 42) : value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return number of fields of a directory record, whose values are
+	 *         given in its ZIP64 extra field
+	 */
+	private int zip64Fields(int pos) {
+		int fields = 0;
+		for (int field : ZIP64_FIELDS) {
+			if (cd.getInt(pos + field) == ZIP64_MAGIC)
+				fields++;
+		}
+		return fields;
+	}
+
+	/**
+	 * @return the value of a field of a directory record from its ZIP64
+	 *         extra field, which has been validated on construction
+	 */
+	private long zip64Value(int pos, int field) {
+		int index = 0;
+		for (int f : ZIP64_FIELDS) {
+			if (f == field)
+				break;
+			if (cd.getInt(pos + f) == ZIP64_MAGIC)
+				index++;
+		}
+		return cd.getLong(zip64Extra(pos, index + 1) + 8 * index);
+	}
+
+	/**
+	 * @param fields number of values, the extra field needs to hold
+	 * @return position of the values of the ZIP64 extra field of a directory
+	 *         record, or -1 if it has none, that holds enough values
+	 */
+	private int zip64Extra(int pos, int fields) {
+		int p = pos + CEN_LEN + (cd.getShort(pos + 28) & 0xFFFF);
+		int end = Math.min(p + (cd.getShort(pos + 30) & 0xFFFF), cd.limit());
+		while (p + 4 <= end) {
+			int id = cd.getShort(p) & 0xFFFF;
+			int length = cd.getShort(p + 2) & 0xFFFF;
+			if (id == ZIP64_EXTRA_ID)
+				return length >= 8 * fields && p + 4 + length <= end ? p + 4 : -1;
+			p += 4 + length;
+		}
+		return -1;
+	}
+
+	/**
+	 * FNV-1a hash of the UTF-8 encoded name, as stored in the directory.
+	 */
+	private int hash(int pos, int length) {
+		int h = 0x811c9dc5;
+		for (int i = 0; i < length; i++)
+			h = (h ^ (cd.get(pos + i) & 0xFF)) * 0x01000193;
+		return h;
+	}
+
+	/**
+	 * FNV-1a hash of the name, encoded to UTF-8 on the fly.
+	 */
+	private static int hash(CharSequence name) {
+		int h = 0x811c9dc5;
+		for (int i = 0; i < name.length(); i++) {
+			int c = codePoint(name, i);
+			if (c > 0xFFFF)
+				i++;
+			for (int b = 0, n = utf8Length(c); b < n; b++)
+				h = (h ^ utf8Byte(c, n, b)) * 0x01000193;
+		}
+		return h;
+	}
+
+	private boolean nameEquals(int entry, CharSequence name) {
+		int pos = records[entry] + CEN_LEN;
+		int end = pos + nameLength(entry);
+		for (int i = 0; i < name.length(); i++) {
+			int c = codePoint(name, i);
+			if (c > 0xFFFF)
+				i++;
+			for (int b = 0, n = utf8Length(c); b < n; b++, pos++) {
+				if (pos >= end || (cd.get(pos) & 0xFF) != utf8Byte(c, n, b))
+					return false;
+			}
+		}
+		return pos == end;
+	}
+
+	private static int codePoint(CharSequence s, int i) {
+		char c = s.charAt(i);
+		if (Character.isHighSurrogate(c) && i + 1 < s.length()
+				&& Character.isLowSurrogate(s.charAt(i + 1)))
+			return Character.toCodePoint(c, s.charAt(i + 1));
+		// unpaired surrogates are encoded as '?', like String.getBytes does
+		return Character.isSurrogate(c) ? '?' : c;
+	}
+
+	private static int utf8Length(int c) {
+		if (c < 0x80)
+			return 1;
+		else if (c < 0x800)
+			return 2;
+		else if (c < 0x10000)
+			return 3;
+		else
+			return 4;
+	}
+
+	private static int utf8Byte(int c, int length, int index) {
+		if (length == 1)
+			return c;
+		int shift = 6 * (length - 1 - index);
+		if (index == 0)
+			return ((0xF00 >> length) & 0xFF) | (c >> shift);
+		return 0x80 | ((c >> shift) & 0x3F);
+	}
+}
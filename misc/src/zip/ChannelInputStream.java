@@ -0,0 +1,54 @@
+package zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a region of a {@link FileChannel} via positional reads, so any
+ * number of streams can read from the same channel concurrently.
+ *
+ * @author oreissig
+ */
+class ChannelInputStream extends InputStream {
+
+	private final FileChannel channel;
+	private long position;
+	private final long end;
+
+	ChannelInputStream(FileChannel channel, long position, long length) {
+		this.channel = channel;
+		this.position = position;
+		this.end = position + length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (position >= end)
+			return -1;
+		len = (int) Math.min(len, end - position);
+		int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+		if (n > 0)
+			position += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		long skipped = Math.max(0, Math.min(n, end - position));
+		position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(end - position, Integer.MAX_VALUE);
+	}
+}
@@ -0,0 +1,47 @@
+package zip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NavigableMap;
+import java.util.zip.ZipException;
+
+import zip.RandomAccessInflater.Checkpoint;
+
+/**
+ * Channel over a DEFLATED entry. Seeking resumes inflation from the closest
+ * checkpoint before the new position, which are recorded while reading and
+ * shared by all channels over the same entry.
+ *
+ * @author oreissig
+ */
+class DeflatedEntryChannel extends EntryChannel {
+
+	/**
+	 * output bytes between checkpoints, each of which holds up to 32KB
+	 */
+	static final long SPACING = 1 << 20;
+
+	private final RandomAccessInflater inflater;
+	private final byte[] chunk = new byte[65536];
+
+	/**
+	 * @param data raw deflate data of the entry
+	 * @param size of the inflated entry
+	 * @param checkpoints of the entry
+	 */
+	DeflatedEntryChannel(ByteBuffer data, long size, NavigableMap<Long, Checkpoint> checkpoints) {
+		super(size);
+		this.inflater = new RandomAccessInflater(data, checkpoints, SPACING);
+	}
+
+	@Override
+	int read(ByteBuffer dst, long position, int length) throws IOException {
+		if (position != inflater.output())
+			inflater.seek(position, chunk);
+		int n = inflater.inflate(chunk, 0, Math.min(length, chunk.length));
+		if (n < 0)
+			throw new ZipException("entry is shorter than its declared size");
+		dst.put(chunk, 0, n);
+		return n;
+	}
+}
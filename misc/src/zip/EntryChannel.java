@@ -0,0 +1,92 @@
+package zip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only {@link SeekableByteChannel} over the content of an entry.
+ *
+ * @author oreissig
+ */
+abstract class EntryChannel implements SeekableByteChannel {
+
+	private final long size;
+	private long position;
+	private boolean open = true;
+
+	EntryChannel(long size) {
+		this.size = size;
+	}
+
+	/**
+	 * Reads from the given position within the content.
+	 *
+	 * @param dst buffer to read into
+	 * @param position within the content
+	 * @param length number of bytes to read at most, which is at least 1
+	 *            and does not exceed the content or the buffer
+	 * @return number of bytes read, which is at least 1
+	 */
+	abstract int read(ByteBuffer dst, long position, int length) throws IOException;
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (position >= size)
+			return -1;
+		if (!dst.hasRemaining())
+			return 0;
+		int n = read(dst, position, (int) Math.min(dst.remaining(), size - position));
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		ensureOpen();
+		if (newPosition < 0)
+			throw new IllegalArgumentException("position must not be negative");
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public synchronized void close() {
+		open = false;
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if (!isOpen())
+			throw new ClosedChannelException();
+	}
+}
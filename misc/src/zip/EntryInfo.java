@@ -0,0 +1,96 @@
+package zip;
+
+/**
+ * Immutable metadata of an entry, as recorded in the central directory of
+ * its archive, so it is available without reading the entry itself.
+ *
+ * @author oreissig
+ */
+public final class EntryInfo {
+
+	private final String name;
+	private final long size;
+	private final long compressedSize;
+	private final long crc;
+	private final int method;
+
+	EntryInfo(String name, long size, long compressedSize, long crc, int method) {
+		this.name = name;
+		this.size = size;
+		this.compressedSize = compressedSize;
+		this.crc = crc;
+		this.method = method;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return uncompressed size in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return size of the entry's data within the archive in bytes
+	 */
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/**
+	 * @return CRC-32 of the uncompressed content
+	 */
+	public long getCrc() {
+		return crc;
+	}
+
+	/**
+	 * @return compression method, like {@link java.util.zip.ZipEntry#DEFLATED}
+	 */
+	public int getMethod() {
+		return method;
+	}
+
+	public boolean isDirectory() {
+		return name.endsWith("/");
+	}
+
+	/**
+	 * Checks whether two entries most likely have the same content,
+	 * regardless of how they are compressed.
+	 *
+	 * @param other entry to compare with
+	 * @return whether both entries have the same size and CRC
+	 */
+	public boolean sameContent(EntryInfo other) {
+		return size == other.size && crc == other.crc;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof EntryInfo))
+			return false;
+		EntryInfo other = (EntryInfo) obj;
+		return name.equals(other.name) && size == other.size && compressedSize == other.compressedSize
+				&& crc == other.crc && method == other.method;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = name.hashCode();
+		result = 31 * result + (int) (size ^ (size >>> 32));
+		result = 31 * result + (int) crc;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "EntryInfo [name=" + name + ", size=" + size + ", compressedSize=" + compressedSize
+				+ ", crc=" + Long.toHexString(crc) + ", method=" + method + "]";
+	}
+}
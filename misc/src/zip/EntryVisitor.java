@@ -0,0 +1,24 @@
+package zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Callback for bulk operations on all entries of a {@link ZipMap}.
+ *
+ * @author oreissig
+ *
+ * @see ZipMap#parallelForEach(EntryVisitor)
+ */
+public interface EntryVisitor {
+
+	/**
+	 * Processes one entry. As this will be called by multiple Threads, it
+	 * has to be concurrency safe.
+	 *
+	 * @param name of the entry
+	 * @param content of the entry, which is closed once this method returns
+	 * @throws IOException if the entry cannot be processed
+	 */
+	void visit(String name, InputStream content) throws IOException;
+}
@@ -0,0 +1,197 @@
+package zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.ZipException;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * An archive in a file, which is read via positional reads and mapped into
+ * memory segment by segment, once slices of them are requested. Segments
+ * overlap by half, so archives of any size can be mapped, even though a
+ * single mapping cannot exceed 2GB.
+ *
+ * @author oreissig
+ */
+class FileSource extends ZipSource {
+
+	private static final int STRIDE_SHIFT = 29;
+	// every segment spans two strides, so any region of up to one stride
+	// lies within a single segment
+	private static final long STRIDE = 1L << STRIDE_SHIFT;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final long size;
+	private final AtomicReferenceArray<MappedByteBuffer> segments;
+	// regions larger than a stride by their position, which are unmapped
+	// once the garbage collector finds no more slices of them
+	private final ConcurrentMap<Long, MappedByteBuffer> largeRegions = new MapMaker().weakValues().makeMap();
+	private volatile AsynchronousFileChannel async;
+
+	FileSource(Path path) throws IOException {
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.segments = new AtomicReferenceArray<>((int) (size >>> STRIDE_SHIFT) + 1);
+	}
+
+	FileChannel channel() {
+		return channel;
+	}
+
+	@Override
+	long size() {
+		return size;
+	}
+
+	@Override
+	void read(ByteBuffer dst, long position) throws IOException {
+		while (dst.hasRemaining()) {
+			int n = channel.read(dst, position);
+			if (n < 0)
+				throw new ZipException("unexpected end of archive");
+			position += n;
+		}
+		dst.flip();
+	}
+
+	/**
+	 * Reads via an {@link AsynchronousFileChannel}, which is opened on first
+	 * use.
+	 */
+	@Override
+	CompletableFuture<ByteBuffer> readAsync(final ByteBuffer dst, long position) {
+		final CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+		final AsynchronousFileChannel ch;
+		try {
+			ch = asyncChannel();
+		} catch (IOException e) {
+			result.completeExceptionally(e);
+			return result;
+		}
+		CompletionHandler<Integer, Long> handler = new CompletionHandler<Integer, Long>() {
+			@Override
+			public void completed(Integer n, Long position) {
+				if (n < 0) {
+					result.completeExceptionally(new ZipException("unexpected end of archive"));
+				} else if (dst.hasRemaining()) {
+					long next = position + n;
+					read(ch, dst, next, this, result);
+				} else {
+					dst.flip();
+					result.complete(dst);
+				}
+			}
+
+			@Override
+			public void failed(Throwable e, Long position) {
+				result.completeExceptionally(e);
+			}
+		};
+		read(ch, dst, position, handler, result);
+		return result;
+	}
+
+	/**
+	 * Starts an asynchronous read, which fails the given future instead of
+	 * throwing, like for a read-only buffer or a closed channel.
+	 */
+	private static void read(AsynchronousFileChannel ch, ByteBuffer dst, long position,
+			CompletionHandler<Integer, Long> handler, CompletableFuture<?> result) {
+		try {
+			ch.read(dst, position, position, handler);
+		} catch (RuntimeException e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	private AsynchronousFileChannel asyncChannel() throws IOException {
+		AsynchronousFileChannel ch = async;
+		if (ch == null) {
+			synchronized (this) {
+				if (!channel.isOpen())
+					throw new ClosedChannelException();
+				if (async == null)
+					async = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+				ch = async;
+			}
+		}
+		return ch;
+	}
+
+	@Override
+	ByteBuffer slice(long position, long length) throws IOException {
+		int len = checkLength(length);
+		if (position < 0 || position + len > size)
+			throw new ZipException("region exceeds the archive");
+		if (len > STRIDE)
+			return large(position, len).asReadOnlyBuffer();
+
+		int k = (int) (position >>> STRIDE_SHIFT);
+		int offset = (int) (position - (k * STRIDE));
+		ByteBuffer b = segment(k).duplicate();
+		b.position(offset).limit(offset + len);
+		return b.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Maps a region exceeding the segments, like a huge STORED entry, which
+	 * is shared by all slices of it, as long as any of them is in use.
+	 */
+	private ByteBuffer large(long position, int len) throws IOException {
+		MappedByteBuffer m = largeRegions.get(position);
+		if (m == null || m.capacity() < len) {
+			m = channel.map(FileChannel.MapMode.READ_ONLY, position, len);
+			largeRegions.put(position, m);
+		}
+		// slices keep the mapping reachable
+		ByteBuffer b = m.duplicate();
+		b.limit(len);
+		return b.slice();
+	}
+
+	private MappedByteBuffer segment(int k) throws IOException {
+		MappedByteBuffer m = segments.get(k);
+		if (m == null) {
+			synchronized (this) {
+				m = segments.get(k);
+				if (m == null) {
+					long start = k * STRIDE;
+					m = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(2 * STRIDE, size - start));
+					segments.set(k, m);
+				}
+			}
+		}
+		return m;
+	}
+
+	@Override
+	InputStream open(long position, long length) {
+		return new ChannelInputStream(channel, position, length);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.close();
+		} finally {
+			synchronized (this) {
+				if (async != null)
+					async.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package zip;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of {@link Inflater}s for raw deflate data, so their native memory is
+ * not allocated and freed for every entry read.
+ *
+ * @author oreissig
+ */
+class InflaterPool {
+
+	private final BlockingQueue<Inflater> free;
+
+	/**
+	 * @param capacity number of unused inflaters to keep
+	 */
+	InflaterPool(int capacity) {
+		this.free = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * @return an inflater, which is ready to use
+	 */
+	Inflater acquire() {
+		Inflater inf = free.poll();
+		return inf != null ? inf : new Inflater(true);
+	}
+
+	/**
+	 * Returns an inflater to the pool, or frees it if the pool is full.
+	 * The inflater must not be used anymore afterwards.
+	 *
+	 * @param inf no longer in use
+	 */
+	void release(Inflater inf) {
+		inf.reset();
+		if (!free.offer(inf))
+			inf.end();
+	}
+}
@@ -0,0 +1,115 @@
+package zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.io.Closer;
+
+import struct.AbstractMap2;
+
+/**
+ * A read-only {@link java.util.Map} view of many archives stacked on top of
+ * each other, like a class path. If several archives hold an entry of the
+ * same name, the first one wins.
+ * <p>
+ * The names of all archives are merged into a single index up front, so
+ * looking up an entry takes a single hash lookup instead of probing every
+ * archive in turn. Most lookups on a class path miss, so they are answered
+ * by a Bloom filter first, which is much smaller than the index.
+ *
+ * @author oreissig
+ */
+public class OverlayZipMap extends AbstractMap2<String, InputStream> implements Closeable {
+
+	private final List<ZipMap> archives;
+	private final Map<String, ZipMap> index = new HashMap<>();
+	private final BloomFilter<CharSequence> names;
+
+	/**
+	 * @param archives to be stacked, in order of precedence, which are
+	 *            closed along with this map
+	 */
+	public OverlayZipMap(List<ZipMap> archives) {
+		this.archives = ImmutableList.copyOf(archives);
+		// directories are put twice, see below
+		long count = 0;
+		for (ZipMap archive : this.archives) {
+			for (String name : archive.keySet())
+				count += name.endsWith("/") ? 2 : 1;
+		}
+		this.names = BloomFilter.create(Funnels.unencodedCharsFunnel(),
+				(int) Math.min(Math.max(count, 1), Integer.MAX_VALUE), 0.01);
+
+		for (ZipMap archive : this.archives) {
+			for (String name : archive.keySet()) {
+				if (index.containsKey(name))
+					continue;
+				index.put(name, archive);
+				names.put(name);
+				// directories are also found without their trailing slash
+				if (name.endsWith("/"))
+					names.put(name.substring(0, name.length() - 1));
+			}
+		}
+	}
+
+	/**
+	 * @return the stacked archives, in order of precedence
+	 */
+	public List<ZipMap> getArchives() {
+		return archives;
+	}
+
+	/**
+	 * Looks up, which archive provides an entry.
+	 *
+	 * @param name of the entry
+	 * @return the first archive holding the entry, or null if there is none
+	 */
+	public ZipMap archiveOf(String name) {
+		if (name == null || !names.mightContain(name))
+			return null;
+		ZipMap archive = index.get(name);
+		if (archive == null && !name.endsWith("/"))
+			archive = index.get(name + "/");
+		return archive;
+	}
+
+	@Override
+	public InputStream get(Object name) {
+		if (!(name instanceof String))
+			return null;
+		ZipMap archive = archiveOf((String) name);
+		return archive == null ? null : archive.get(name);
+	}
+
+	@Override
+	public boolean containsKey(Object name) {
+		return name instanceof String && names.mightContain((String) name) && index.containsKey(name);
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return Collections.unmodifiableSet(index.keySet());
+	}
+
+	/**
+	 * Closes all stacked archives.
+	 */
+	@Override
+	public void close() throws IOException {
+		Closer closer = Closer.create();
+		for (ZipMap archive : archives)
+			closer.register(archive);
+		closer.close();
+	}
+}
@@ -0,0 +1,406 @@
+package zip;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates raw deflate data like {@link java.util.zip.Inflater}, but its
+ * state can be captured at block boundaries and restored later, like zlib's
+ * zran example does. As {@link java.util.zip.Inflater} can neither expose
+ * nor resume from a bit position, this is a decoder of its own.
+ * <p>
+ * While inflating, a {@link Checkpoint} is recorded at the first block
+ * boundary after every given number of output bytes, so later reads can
+ * resume close to any position instead of inflating from the start.
+ *
+ * @author oreissig
+ */
+final class RandomAccessInflater {
+
+	/**
+	 * State of the inflater at the start of a block, which is all it takes
+	 * to resume from there: the position in the input and the last 32KB of
+	 * output, which later blocks may refer back to.
+	 */
+	static final class Checkpoint {
+		final long output;
+		final long bitPosition;
+		final byte[] window;
+
+		Checkpoint(long output, long bitPosition, byte[] window) {
+			this.output = output;
+			this.bitPosition = bitPosition;
+			this.window = window;
+		}
+	}
+
+	private static final Checkpoint START = new Checkpoint(0, 0, new byte[0]);
+
+	private static final int WINDOW = 1 << 15;
+	private static final int MASK = WINDOW - 1;
+	private static final int MAX_BITS = 15;
+	// codes up to this length are decoded by a single table lookup
+	private static final int FAST_BITS = 9;
+
+	private static final int HEADER = 0;
+	private static final int STORED = 1;
+	private static final int CODES = 2;
+	private static final int DONE = 3;
+
+	private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+			35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+	private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3,
+			3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+	private static final int[] DISTANCE_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129,
+			193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+	private static final int[] DISTANCE_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7,
+			8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+	private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13,
+			2, 14, 1, 15 };
+
+	private static final Huffman FIXED_LITERALS;
+	private static final Huffman FIXED_DISTANCES;
+
+	static {
+		byte[] lengths = new byte[288];
+		Arrays.fill(lengths, 0, 144, (byte) 8);
+		Arrays.fill(lengths, 144, 256, (byte) 9);
+		Arrays.fill(lengths, 256, 280, (byte) 7);
+		Arrays.fill(lengths, 280, 288, (byte) 8);
+		byte[] distances = new byte[30];
+		Arrays.fill(distances, (byte) 5);
+		try {
+			FIXED_LITERALS = new Huffman(lengths);
+			FIXED_DISTANCES = new Huffman(distances);
+		} catch (ZipException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private final ByteBuffer in;
+	private final NavigableMap<Long, Checkpoint> checkpoints;
+	private final long spacing;
+
+	private int pos;
+	private long bits;
+	private int bitCount;
+
+	private final byte[] window = new byte[WINDOW];
+	private int windowPos;
+	private long output;
+
+	private int mode = HEADER;
+	private boolean last;
+	private int storedLeft;
+	private Huffman literals;
+	private Huffman distances;
+	private int copyLength;
+	private int copyDistance;
+
+	/**
+	 * @param in raw deflate data between position 0 and its limit
+	 * @param checkpoints to be used and extended, which may be shared by
+	 *            several inflaters of the same data
+	 * @param spacing minimum number of output bytes between checkpoints
+	 */
+	RandomAccessInflater(ByteBuffer in, NavigableMap<Long, Checkpoint> checkpoints, long spacing) {
+		this.in = in;
+		this.checkpoints = checkpoints;
+		this.spacing = spacing;
+	}
+
+	/**
+	 * @return number of bytes inflated so far, which is the position in the
+	 *         output
+	 */
+	long output() {
+		return output;
+	}
+
+	/**
+	 * Continues at the given checkpoint.
+	 */
+	void restore(Checkpoint c) {
+		pos = (int) (c.bitPosition >>> 3);
+		bits = 0;
+		bitCount = 0;
+		int skip = (int) (c.bitPosition & 7);
+		if (skip > 0) {
+			refill();
+			bits >>>= skip;
+			bitCount -= skip;
+		}
+		System.arraycopy(c.window, 0, window, 0, c.window.length);
+		windowPos = c.window.length & MASK;
+		output = c.output;
+		mode = HEADER;
+		last = false;
+		storedLeft = 0;
+		copyLength = 0;
+	}
+
+	/**
+	 * Moves the output to the given position, resuming from the closest
+	 * checkpoint before it, unless that is behind the current position.
+	 *
+	 * @param position in the output
+	 * @param scratch array to inflate skipped bytes into
+	 * @throws ZipException if the data is corrupt or ends before
+	 */
+	void seek(long position, byte[] scratch) throws ZipException {
+		Map.Entry<Long, Checkpoint> c = checkpoints.floorEntry(position);
+		Checkpoint closest = c == null ? START : c.getValue();
+		if (position < output || closest.output > output)
+			restore(closest);
+		while (output < position) {
+			int n = inflate(scratch, 0, (int) Math.min(scratch.length, position - output));
+			if (n < 0)
+				throw new ZipException("unexpected end of deflate data");
+		}
+	}
+
+	/**
+	 * @param b array to inflate into
+	 * @param off first position to write to
+	 * @param len maximum number of bytes to inflate
+	 * @return number of bytes inflated, or -1 once the data has ended
+	 * @throws ZipException if the data is corrupt
+	 */
+	int inflate(byte[] b, int off, int len) throws ZipException {
+		int n = 0;
+		while (n < len) {
+			switch (mode) {
+			case HEADER:
+				header();
+				break;
+			case STORED:
+				if (storedLeft == 0) {
+					mode = HEADER;
+					break;
+				}
+				for (int end = n + Math.min(storedLeft, len - n); n < end; n++, storedLeft--)
+					b[off + n] = emit((byte) bits(8));
+				break;
+			case CODES:
+				if (copyLength > 0) {
+					for (int end = n + Math.min(copyLength, len - n); n < end; n++, copyLength--)
+						b[off + n] = emit(window[(windowPos - copyDistance) & MASK]);
+					break;
+				}
+				int symbol = decode(literals);
+				if (symbol < 256) {
+					b[off + n++] = emit((byte) symbol);
+				} else if (symbol == 256) {
+					mode = HEADER;
+				} else {
+					symbol -= 257;
+					if (symbol >= LENGTH_BASE.length)
+						throw new ZipException("invalid literal/length code");
+					copyLength = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+					symbol = decode(distances);
+					if (symbol >= DISTANCE_BASE.length)
+						throw new ZipException("invalid distance code");
+					copyDistance = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+					if (copyDistance > output)
+						throw new ZipException("invalid distance too far back");
+				}
+				break;
+			default:
+				return n == 0 ? -1 : n;
+			}
+		}
+		return n;
+	}
+
+	private byte emit(byte value) {
+		window[windowPos] = value;
+		windowPos = (windowPos + 1) & MASK;
+		output++;
+		return value;
+	}
+
+	private void header() throws ZipException {
+		if (last) {
+			mode = DONE;
+			return;
+		}
+		checkpoint();
+		last = bits(1) == 1;
+		switch (bits(2)) {
+		case 0:
+			// stored blocks start at a byte boundary
+			int skip = bitCount & 7;
+			bits >>>= skip;
+			bitCount -= skip;
+			int length = bits(16);
+			if (length != (~bits(16) & 0xFFFF))
+				throw new ZipException("invalid stored block lengths");
+			storedLeft = length;
+			mode = STORED;
+			break;
+		case 1:
+			literals = FIXED_LITERALS;
+			distances = FIXED_DISTANCES;
+			mode = CODES;
+			break;
+		case 2:
+			dynamicCodes();
+			mode = CODES;
+			break;
+		default:
+			throw new ZipException("invalid block type");
+		}
+	}
+
+	private void checkpoint() {
+		if (output == 0)
+			return;
+		Long previous = checkpoints.floorKey(output);
+		if (output - (previous == null ? 0 : previous) < spacing)
+			return;
+		int n = (int) Math.min(output, WINDOW);
+		byte[] w = new byte[n];
+		int start = (windowPos - n) & MASK;
+		int first = Math.min(n, WINDOW - start);
+		System.arraycopy(window, start, w, 0, first);
+		System.arraycopy(window, 0, w, first, n - first);
+		checkpoints.put(output, new Checkpoint(output, (long) pos * 8 - bitCount, w));
+	}
+
+	private void dynamicCodes() throws ZipException {
+		int literalCount = bits(5) + 257;
+		int distanceCount = bits(5) + 1;
+		int codeLengthCount = bits(4) + 4;
+		if (literalCount > 286 || distanceCount > 30)
+			throw new ZipException("invalid dynamic block code counts");
+
+		byte[] codeLengths = new byte[19];
+		for (int i = 0; i < codeLengthCount; i++)
+			codeLengths[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+		Huffman lengthCode = new Huffman(codeLengths);
+
+		byte[] lengths = new byte[literalCount + distanceCount];
+		for (int i = 0; i < lengths.length;) {
+			int symbol = decode(lengthCode);
+			if (symbol < 16) {
+				lengths[i++] = (byte) symbol;
+				continue;
+			}
+			byte repeated = 0;
+			int count;
+			if (symbol == 16) {
+				if (i == 0)
+					throw new ZipException("repeated code length without a previous one");
+				repeated = lengths[i - 1];
+				count = 3 + bits(2);
+			} else if (symbol == 17) {
+				count = 3 + bits(3);
+			} else {
+				count = 11 + bits(7);
+			}
+			if (i + count > lengths.length)
+				throw new ZipException("too many code lengths");
+			Arrays.fill(lengths, i, i + count, repeated);
+			i += count;
+		}
+		if (lengths[256] == 0)
+			throw new ZipException("missing end-of-block code");
+		literals = new Huffman(Arrays.copyOfRange(lengths, 0, literalCount));
+		distances = new Huffman(Arrays.copyOfRange(lengths, literalCount, lengths.length));
+	}
+
+	private void refill() {
+		while (bitCount <= 56 && pos < in.limit()) {
+			bits |= (long) (in.get(pos++) & 0xFF) << bitCount;
+			bitCount += 8;
+		}
+	}
+
+	private int bits(int n) throws ZipException {
+		if (bitCount < n) {
+			refill();
+			if (bitCount < n)
+				throw new ZipException("unexpected end of deflate data");
+		}
+		int value = (int) (bits & ((1L << n) - 1));
+		bits >>>= n;
+		bitCount -= n;
+		return value;
+	}
+
+	private int decode(Huffman h) throws ZipException {
+		if (bitCount < MAX_BITS)
+			refill();
+		int fast = h.fast[(int) bits & ((1 << FAST_BITS) - 1)];
+		if (fast != 0) {
+			int length = fast & 0xF;
+			if (length > bitCount)
+				throw new ZipException("unexpected end of deflate data");
+			bits >>>= length;
+			bitCount -= length;
+			return fast >>> 4;
+		}
+		// longer codes are decoded canonically, one bit at a time
+		int code = 0;
+		int first = 0;
+		int index = 0;
+		for (int length = 1; length <= MAX_BITS; length++) {
+			code |= bits(1);
+			int count = h.count[length];
+			if (code - count < first)
+				return h.symbols[index + code - first];
+			index += count;
+			first = (first + count) << 1;
+			code <<= 1;
+		}
+		throw new ZipException("invalid Huffman code");
+	}
+
+	/**
+	 * A canonical Huffman code, as given by the lengths of its codes.
+	 */
+	private static final class Huffman {
+		final int[] count = new int[MAX_BITS + 1];
+		final int[] symbols;
+		// symbol << 4 | length, or 0 for codes longer than FAST_BITS
+		final short[] fast = new short[1 << FAST_BITS];
+
+		Huffman(byte[] lengths) throws ZipException {
+			for (byte length : lengths)
+				count[length]++;
+			count[0] = 0;
+			int left = 1;
+			for (int length = 1; length <= MAX_BITS; length++) {
+				left = (left << 1) - count[length];
+				if (left < 0)
+					throw new ZipException("over-subscribed Huffman code");
+			}
+
+			int[] offsets = new int[MAX_BITS + 2];
+			for (int length = 1; length <= MAX_BITS; length++)
+				offsets[length + 1] = offsets[length] + count[length];
+			symbols = new int[offsets[MAX_BITS + 1]];
+			int[] next = new int[MAX_BITS + 1];
+			for (int length = 1, code = 0; length <= MAX_BITS; length++) {
+				code = (code + count[length - 1]) << 1;
+				next[length] = code;
+			}
+			for (int symbol = 0; symbol < lengths.length; symbol++) {
+				int length = lengths[symbol];
+				if (length == 0)
+					continue;
+				symbols[offsets[length]++] = symbol;
+				int code = next[length]++;
+				if (length > FAST_BITS)
+					continue;
+				// codes are stored starting with their most significant bit
+				int reversed = Integer.reverse(code) >>> (32 - length);
+				for (int i = reversed; i < fast.length; i += 1 << length)
+					fast[i] = (short) (symbol << 4 | length);
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package zip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Channel over a STORED entry, which reads straight from the archive at
+ * any position.
+ *
+ * @author oreissig
+ */
+class StoredEntryChannel extends EntryChannel {
+
+	private final ZipSource source;
+	private final long offset;
+
+	/**
+	 * @param source of the archive
+	 * @param offset of the entry's data within the archive
+	 * @param size of the entry
+	 */
+	StoredEntryChannel(ZipSource source, long offset, long size) {
+		super(size);
+		this.source = source;
+		this.offset = offset;
+	}
+
+	@Override
+	int read(ByteBuffer dst, long position, int length) throws IOException {
+		ByteBuffer window = dst.duplicate();
+		window.limit(window.position() + length);
+		source.read(window, offset + position);
+		dst.position(dst.position() + length);
+		return length;
+	}
+}
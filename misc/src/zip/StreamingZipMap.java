@@ -0,0 +1,188 @@
+package zip;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.FileBackedOutputStream;
+
+/**
+ * Reads a zip archive in a single pass from a stream, like a pipe or a
+ * socket, without spooling it to disk first. Its entries are walked via
+ * their local headers as they arrive, so they can only be iterated once and
+ * each entry's content is only readable until the iteration advances.
+ * <p>
+ * Entries, that need to be revisited later, can be selected via
+ * {@link #setSpoolFilter(Predicate)}. Those are spooled as they pass by,
+ * in memory if they are small or to a temporary file otherwise, and remain
+ * available via {@link #getSpooled(String)} until this map is closed.
+ *
+ * @author oreissig
+ */
+public class StreamingZipMap implements Iterable<Map.Entry<String, InputStream>>, Closeable {
+
+	private final ZipInputStream in;
+	private final Map<String, FileBackedOutputStream> spooled = new HashMap<>();
+	private Predicate<? super String> spoolFilter = Predicates.alwaysFalse();
+	private int memoryThreshold = 1 << 20;
+	private boolean iterated;
+
+	/**
+	 * @param archive stream of the archive, which is closed along with this
+	 *            map
+	 */
+	public StreamingZipMap(InputStream archive) {
+		this.in = new ZipInputStream(archive);
+	}
+
+	/**
+	 * Selects the entries to be spooled while iterating, so they can be
+	 * read again via {@link #getSpooled(String)}. By default, no entry is
+	 * spooled.
+	 *
+	 * @param filter accepting the names of the entries to spool
+	 */
+	public void setSpoolFilter(Predicate<? super String> filter) {
+		if (filter == null)
+			throw new NullPointerException();
+		this.spoolFilter = filter;
+	}
+
+	/**
+	 * @param bytes up to which a spooled entry is held in memory, before it
+	 *            is moved to a temporary file; 1MB by default
+	 */
+	public void setMemoryThreshold(int bytes) {
+		if (bytes < 0)
+			throw new IllegalArgumentException("threshold must not be negative");
+		this.memoryThreshold = bytes;
+	}
+
+	/**
+	 * Returns the content of an entry, that has been spooled while
+	 * iterating, see {@link #setSpoolFilter(Predicate)}.
+	 *
+	 * @param name of the entry
+	 * @return a new stream of the content, or null if the entry has not
+	 *         been spooled (yet)
+	 * @throws IOException if the spooled content cannot be read
+	 */
+	public InputStream getSpooled(String name) throws IOException {
+		FileBackedOutputStream spool = spooled.get(name);
+		return spool == null ? null : spool.asByteSource().openStream();
+	}
+
+	/**
+	 * Visits all remaining entries in the order of the archive.
+	 *
+	 * @param visitor to be called for each entry
+	 * @throws IOException if the archive cannot be read
+	 */
+	public void forEachEntry(EntryVisitor visitor) throws IOException {
+		try {
+			for (Map.Entry<String, InputStream> e : this)
+				visitor.visit(e.getKey(), e.getValue());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Returns an iterator, which advances through the archive as it is
+	 * read. The content of an entry is valid until the next call to
+	 * {@link Iterator#hasNext()} or {@link Iterator#next()}, which skips
+	 * whatever has not been read of it. This can only be called once.
+	 *
+	 * @throws UncheckedIOException while iterating, if the archive cannot be
+	 *             read
+	 */
+	@Override
+	public Iterator<Map.Entry<String, InputStream>> iterator() {
+		if (iterated)
+			throw new IllegalStateException("archive can only be iterated once");
+		iterated = true;
+
+		return new Iterator<Map.Entry<String, InputStream>>() {
+			private ZipEntry next;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = in.getNextEntry();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public Map.Entry<String, InputStream> next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				String name = next.getName();
+				next = null;
+				try {
+					return Maps.immutableEntry(name, content(name));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private InputStream content(String name) throws IOException {
+		if (!spoolFilter.apply(name)) {
+			// closing an entry must not close the whole archive
+			return new FilterInputStream(in) {
+				@Override
+				public void close() {
+				}
+			};
+		}
+		FileBackedOutputStream spool = new FileBackedOutputStream(memoryThreshold, true);
+		try {
+			ByteStreams.copy(in, spool);
+			spool.close();
+		} catch (IOException e) {
+			spool.reset();
+			throw e;
+		}
+		FileBackedOutputStream old = spooled.put(name, spool);
+		if (old != null)
+			old.reset();
+		return spool.asByteSource().openStream();
+	}
+
+	/**
+	 * Closes the archive and deletes all spooled entries.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			in.close();
+		} finally {
+			for (FileBackedOutputStream spool : spooled.values())
+				spool.reset();
+			spooled.clear();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package zip;
+
+import java.util.SortedSet;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * The differences between two archives, like two releases of the same
+ * application. Entries are compared by the sizes and CRCs recorded in the
+ * central directories only, so no entry needs to be read, let alone
+ * decompressed. Entries, that were merely compressed differently, are
+ * considered unchanged.
+ *
+ * @author oreissig
+ */
+public final class ZipDiff {
+
+	private final SortedSet<String> added;
+	private final SortedSet<String> removed;
+	private final SortedSet<String> changed;
+
+	/**
+	 * @param from the old archive
+	 * @param to the new archive
+	 */
+	public ZipDiff(ZipMap from, ZipMap to) {
+		ImmutableSortedSet.Builder<String> added = ImmutableSortedSet.naturalOrder();
+		ImmutableSortedSet.Builder<String> removed = ImmutableSortedSet.naturalOrder();
+		ImmutableSortedSet.Builder<String> changed = ImmutableSortedSet.naturalOrder();
+
+		CentralDirectory old = from.directory();
+		CentralDirectory current = to.directory();
+		for (int e = 0; e < old.size(); e++) {
+			String name = old.name(e);
+			int match = current.find(name);
+			if (match < 0)
+				removed.add(name);
+			else if (old.size(e) != current.size(match) || old.crc(e) != current.crc(match))
+				changed.add(name);
+		}
+		for (int e = 0; e < current.size(); e++) {
+			String name = current.name(e);
+			if (old.find(name) < 0)
+				added.add(name);
+		}
+
+		this.added = added.build();
+		this.removed = removed.build();
+		this.changed = changed.build();
+	}
+
+	/**
+	 * @return names of the entries only present in the new archive
+	 */
+	public SortedSet<String> getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return names of the entries only present in the old archive
+	 */
+	public SortedSet<String> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return names of the entries present in both archives, whose content
+	 *         differs
+	 */
+	public SortedSet<String> getChanged() {
+		return changed;
+	}
+
+	/**
+	 * @return whether both archives have the same content
+	 */
+	public boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "ZipDiff [added=" + added + ", removed=" + removed + ", changed=" + changed + "]";
+	}
+}
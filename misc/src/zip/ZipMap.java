@@ -1,43 +1,239 @@
 package zip;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.AbstractSet;
-import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+import parallelfor.CheckedParallelFor;
+import parallelfor.CostEstimator;
+import parallelfor.IntRange;
+import parallelfor.Scheduling;
+import zip.RandomAccessInflater.Checkpoint;
 import struct.AbstractMap2;
 
+/**
+ * A read-only {@link java.util.Map} view of the contents of a zip archive.
+ * New archives can be written via {@link #create(File)} instead.
+ * <p>
+ * The archive may be a file, a buffer in memory or an entry of another
+ * archive. Its central directory is memory-mapped and indexed once, so
+ * lookups and key iteration do not depend on {@link ZipFile}. Entries are
+ * read via positional reads and inflated by pooled {@link Inflater}s, so
+ * concurrent readers neither contend with each other nor churn native
+ * memory.
+ *
+ * @author oreissig
+ */
 public class ZipMap extends AbstractMap2<String, InputStream> implements Closeable {
 
+	// shared by all archives, as inflaters are not tied to any of them
+	private static final InflaterPool INFLATERS = new InflaterPool(64);
+
 	private final ZipFile zip;
+	private final ZipSource source;
+	private final CentralDirectory directory;
+	// offsets of the entries' data, resolved lazily from their local headers
+	private final AtomicLongArray dataOffsets;
+	private final BufferPool buffers = new BufferPool(16 << 20);
+	private volatile Cache<Integer, byte[]> cache;
+	private volatile long cacheBudget;
+	private volatile ImmutableSortedSet<String> sortedNames;
+	// inflater states within DEFLATED entries, recorded by their channels
+	private final ConcurrentMap<Integer, ConcurrentNavigableMap<Long, Checkpoint>> checkpoints = new ConcurrentHashMap<>();
+	// only set for archives being written
+	private final ZipWriter writer;
 
 	public ZipMap(ZipFile zipFile) {
+		this(zipFile, index(zipFile));
+	}
+
+	private static CentralDirectory index(ZipFile zipFile) {
 		if (zipFile == null)
 			throw new NullPointerException();
-		else
-			this.zip = zipFile;
+		try {
+			return CentralDirectory.read(new FileSource(new File(zipFile.getName()).toPath()));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 
 	public ZipMap(File zipFile) throws IOException {
-		this(new ZipFile(zipFile));
+		this(null, CentralDirectory.read(new FileSource(zipFile.toPath())));
 	}
 
 	public ZipMap(String path) throws IOException {
-		this(new ZipFile(path));
+		this(new File(path));
+	}
+
+	/**
+	 * Opens an archive held in memory, without copying it.
+	 *
+	 * @param archive holding the archive between its position and limit,
+	 *            which must not be modified while this map is in use
+	 * @throws IOException if the archive is corrupt
+	 */
+	public ZipMap(ByteBuffer archive) throws IOException {
+		this(null, CentralDirectory.read(new BufferSource(archive)));
+	}
+
+	/**
+	 * Opens an archive held in memory, without copying it.
+	 *
+	 * @param archive which must not be modified while this map is in use
+	 * @throws IOException if the archive is corrupt
+	 */
+	public ZipMap(byte[] archive) throws IOException {
+		this(ByteBuffer.wrap(archive));
+	}
+
+	/**
+	 * Opens a nested archive, like a jar in a jar, in place.
+	 * If the nested archive is STORED, it is read straight from the outer
+	 * archive's memory mapping, otherwise it gets inflated into memory once,
+	 * which is handed back to the outer archive's pool on {@link #close()}.
+	 * The outer archive must not be closed while this map is in use.
+	 *
+	 * @param outer archive containing the nested one
+	 * @param name of the entry holding the nested archive
+	 * @throws IOException if there is no such entry or it is corrupt
+	 */
+	public ZipMap(ZipMap outer, String name) throws IOException {
+		this(null, nested(outer, name));
+	}
+
+	private static CentralDirectory nested(ZipMap outer, String name) throws IOException {
+		ByteBuffer b = outer.getBuffer(name);
+		if (b == null)
+			throw new ZipException("no such entry: " + name);
+		BufferSource source = new BufferSource(b, outer);
+		try {
+			return CentralDirectory.read(source);
+		} catch (IOException | RuntimeException e) {
+			source.close();
+			throw e;
+		}
+	}
+
+	private ZipMap(ZipFile zip, CentralDirectory directory) {
+		this.zip = zip;
+		this.source = directory.source();
+		this.directory = directory;
+		this.dataOffsets = new AtomicLongArray(directory.size());
+		this.writer = null;
+	}
+
+	private ZipMap(ZipWriter writer) {
+		this.zip = null;
+		this.source = null;
+		this.directory = null;
+		this.dataOffsets = null;
+		this.writer = writer;
+	}
+
+	/**
+	 * Creates a new archive, using as many threads for compression as there
+	 * are CPU cores available, see {@link #create(File, int)}.
+	 *
+	 * @param zipFile to be written, which gets replaced if it exists
+	 * @return an empty, writable map
+	 * @throws IOException if the file cannot be created
+	 */
+	public static ZipMap create(File zipFile) throws IOException {
+		return create(zipFile, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new archive, which is filled via
+	 * {@link #put(String, InputStream)}. Every entry is cut into blocks, that
+	 * get deflated on all threads in parallel, also across entries, so
+	 * entries are written in the background, and the central directory is
+	 * written on {@link #close()}. The archive can only be read after it has
+	 * been closed and opened again.
+	 *
+	 * @param zipFile to be written, which gets replaced if it exists
+	 * @param threads number of threads to compress with
+	 * @return an empty, writable map
+	 * @throws IOException if the file cannot be created
+	 */
+	public static ZipMap create(File zipFile, int threads) throws IOException {
+		return new ZipMap(new ZipWriter(zipFile.toPath(), threads, Deflater.DEFAULT_COMPRESSION));
+	}
+
+	private void checkReadable() {
+		if (writer != null)
+			throw new IllegalStateException("archive is being written, it can be read once it is closed");
+	}
+
+	CentralDirectory directory() {
+		checkReadable();
+		return directory;
+	}
+
+	/**
+	 * Looks up an entry like {@link ZipFile#getEntry(String)} does, which
+	 * also finds directories given without their trailing slash.
+	 */
+	private int find(Object name) {
+		checkReadable();
+		if (name == null)
+			return -1;
+		String n = name.toString();
+		int entry = directory.find(n);
+		if (entry < 0 && !n.endsWith("/"))
+			entry = directory.find(n + "/");
+		return entry;
 	}
 
 	@Override
 	public InputStream get(Object name) {
-		ZipEntry entry = zip.getEntry(name.toString());
-		if (entry != null) {
+		int entry = find(name);
+		if (entry >= 0) {
 			try {
-				return zip.getInputStream(entry);
+				byte[] cached = cached(entry);
+				return cached != null ? new ByteArrayInputStream(cached) : open(entry);
 			} catch (IOException e) {
 				return null;
 			}
@@ -46,23 +242,656 @@ public class ZipMap extends AbstractMap2<String, InputStream> implements Closeab
 		}
 	}
 
+	/**
+	 * Returns the metadata of an entry, which is taken from the central
+	 * directory without reading the entry.
+	 *
+	 * @param name of the entry
+	 * @return the metadata, or null if there is no such entry
+	 */
+	public EntryInfo getInfo(String name) {
+		int entry = find(name);
+		if (entry < 0)
+			return null;
+		return new EntryInfo(directory.name(entry), directory.size(entry),
+				directory.compressedSize(entry), directory.crc(entry), directory.method(entry));
+	}
+
+	/**
+	 * @return a view of the metadata of all entries, see
+	 *         {@link #getInfo(String)}
+	 */
+	public Map<String, EntryInfo> infoMap() {
+		checkReadable();
+		return new AbstractMap2<String, EntryInfo>() {
+			@Override
+			public EntryInfo get(Object name) {
+				return name instanceof String ? getInfo((String) name) : null;
+			}
+
+			@Override
+			public Set<String> keySet() {
+				return ZipMap.this.keySet();
+			}
+		};
+	}
+
+	private InputStream open(int entry) throws IOException {
+		InputStream raw = source.open(dataOffset(entry), directory.compressedSize(entry));
+		switch (directory.method(entry)) {
+		case ZipEntry.STORED:
+			return raw;
+		case ZipEntry.DEFLATED:
+			return new EntryInflaterInputStream(raw, INFLATERS.acquire(), directory.size(entry));
+		default:
+			throw new ZipException("invalid compression method");
+		}
+	}
+
+	/**
+	 * Enables a cache of decompressed entries, so hot entries do not need
+	 * to be inflated over and over again. STORED entries are not cached, as
+	 * they are read from the memory-mapped archive anyway.
+	 * Entries are evicted in least-recently-used order, once the total size
+	 * of the cached entries exceeds the given budget.
+	 * Entries larger than a quarter of the budget bypass the cache and are
+	 * streamed instead, as they would evict most of the hot entries.
+	 *
+	 * @param maxBytes maximum total size of all cached entries, or 0 to
+	 *            disable the cache (the default)
+	 */
+	public void setCacheSize(long maxBytes) {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("cache size must not be negative");
+		cacheBudget = maxBytes;
+		Cache<Integer, byte[]> old = cache;
+		cache = maxBytes == 0 ? null : CacheBuilder.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher(new Weigher<Integer, byte[]>() {
+					@Override
+					public int weigh(Integer entry, byte[] content) {
+						return content.length;
+					}
+				})
+				.recordStats()
+				.build();
+		if (old != null)
+			old.invalidateAll();
+	}
+
+	/**
+	 * @return hit and miss statistics of the cache of decompressed entries,
+	 *         or null if it is disabled
+	 */
+	public CacheStats getCacheStats() {
+		Cache<Integer, byte[]> c = cache;
+		return c == null ? null : c.stats();
+	}
+
+	/**
+	 * @return content of a compressed entry from the cache, or null if it
+	 *         cannot be cached
+	 */
+	private byte[] cached(final int entry) throws IOException {
+		Cache<Integer, byte[]> c = cache;
+		if (c == null || directory.method(entry) == ZipEntry.STORED
+				|| directory.size(entry) > Math.min(cacheBudget / 4, Integer.MAX_VALUE))
+			return null;
+		try {
+			return c.get(entry, new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					try (InputStream in = open(entry)) {
+						return ByteStreams.toByteArray(in);
+					}
+				}
+			});
+		} catch (ExecutionException e) {
+			Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the content of an entry as a buffer, without copying it to
+	 * the heap where possible.
+	 * For STORED entries, this is a read-only slice of the memory-mapped
+	 * archive. Cached entries are wrapped read-only, see
+	 * {@link #setCacheSize(long)}. Other entries are decompressed into a
+	 * pooled direct buffer, which should be handed back via
+	 * {@link #releaseBuffer(ByteBuffer)} once it is no longer needed.
+	 *
+	 * @param name of the entry
+	 * @return the content, or null if there is no such entry
+	 * @throws IOException if the entry cannot be read
+	 */
+	public ByteBuffer getBuffer(String name) throws IOException {
+		int entry = find(name);
+		if (entry < 0)
+			return null;
+
+		long size = directory.size(entry);
+		if (size > Integer.MAX_VALUE)
+			throw new ZipException("entry too large for a buffer: " + name);
+		ByteBuffer data = source.slice(dataOffset(entry), directory.compressedSize(entry));
+		switch (directory.method(entry)) {
+		case ZipEntry.STORED:
+			return data;
+		case ZipEntry.DEFLATED:
+			byte[] cached = cached(entry);
+			return cached != null ? ByteBuffer.wrap(cached).asReadOnlyBuffer() : inflate(data, (int) size);
+		default:
+			throw new ZipException("invalid compression method");
+		}
+	}
+
+	/**
+	 * Hands a buffer returned by {@link #getBuffer(String)} back to the
+	 * pool, so it can be reused. The buffer must not be used anymore
+	 * afterwards. Buffers, that are not pooled, are ignored.
+	 *
+	 * @param buffer no longer in use
+	 */
+	public void releaseBuffer(ByteBuffer buffer) {
+		buffers.release(buffer);
+	}
+
+	/**
+	 * Inflates raw deflate data into a pooled direct buffer. As
+	 * {@link Inflater} only operates on arrays on Java 8, this goes through
+	 * small scratch arrays.
+	 */
+	private ByteBuffer inflate(ByteBuffer compressed, int size) throws IOException {
+		ByteBuffer out = buffers.acquire(size);
+		Inflater inf = INFLATERS.acquire();
+		try {
+			byte[] in = new byte[Math.min(Math.max(compressed.remaining(), 1), 8192)];
+			byte[] chunk = new byte[Math.min(Math.max(size, 1), 65536)];
+			boolean dummy = false;
+			while (!inf.finished() && out.hasRemaining()) {
+				if (inf.needsInput()) {
+					int n = Math.min(in.length, compressed.remaining());
+					if (n > 0) {
+						compressed.get(in, 0, n);
+					} else if (!dummy) {
+						// raw inflation may need a dummy byte beyond the data
+						in[0] = 0;
+						n = 1;
+						dummy = true;
+					} else {
+						throw new ZipException("unexpected end of deflate data");
+					}
+					inf.setInput(in, 0, n);
+				}
+				if (inf.needsDictionary())
+					throw new ZipException("invalid deflate data");
+				int n = inf.inflate(chunk, 0, Math.min(chunk.length, out.remaining()));
+				out.put(chunk, 0, n);
+			}
+			if (out.hasRemaining())
+				throw new ZipException("entry is shorter than its declared size");
+			out.flip();
+			return out;
+		} catch (DataFormatException e) {
+			buffers.release(out);
+			throw new ZipException(e.getMessage());
+		} catch (IOException | RuntimeException e) {
+			buffers.release(out);
+			throw e;
+		} finally {
+			INFLATERS.release(inf);
+		}
+	}
+
+	/**
+	 * Reads the content of an entry without blocking the caller, so many
+	 * reads can be in flight at once. Archive files are read via an
+	 * {@link java.nio.channels.AsynchronousFileChannel} and compressed
+	 * entries are inflated by the thread completing the read, archives in
+	 * memory are read right away.
+	 * <p>
+	 * The content is returned in a pooled direct buffer, unless it has been
+	 * cached, see {@link #setCacheSize(long)}. Pooled buffers should be
+	 * handed back via {@link #releaseBuffer(ByteBuffer)} once they are no
+	 * longer needed.
+	 *
+	 * @param name of the entry
+	 * @return future of the content, or of null if there is no such entry
+	 */
+	public CompletableFuture<ByteBuffer> getAsync(String name) {
+		final CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+		final int entry = find(name);
+		if (entry < 0) {
+			result.complete(null);
+			return result;
+		}
+		Cache<Integer, byte[]> c = cache;
+		byte[] cached = c == null ? null : c.getIfPresent(entry);
+		if (cached != null) {
+			result.complete(ByteBuffer.wrap(cached).asReadOnlyBuffer());
+			return result;
+		}
+		final int method = directory.method(entry);
+		final long size = directory.size(entry);
+		final long compressedSize = directory.compressedSize(entry);
+		if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+			result.completeExceptionally(new ZipException("invalid compression method"));
+			return result;
+		}
+		if (size > Integer.MAX_VALUE || compressedSize > Integer.MAX_VALUE) {
+			result.completeExceptionally(new ZipException("entry too large for a buffer: " + name));
+			return result;
+		}
+
+		dataOffsetAsync(entry).whenComplete(new BiConsumer<Long, Throwable>() {
+			@Override
+			public void accept(Long offset, Throwable failure) {
+				if (failure != null) {
+					result.completeExceptionally(failure);
+					return;
+				}
+				final ByteBuffer data;
+				try {
+					data = buffers.acquire((int) compressedSize);
+				} catch (RuntimeException | Error e) {
+					// like running out of direct memory
+					result.completeExceptionally(e);
+					return;
+				}
+				try {
+					source.readAsync(data, offset).whenComplete(new BiConsumer<ByteBuffer, Throwable>() {
+						@Override
+						public void accept(ByteBuffer ignored, Throwable failure) {
+							if (failure != null) {
+								buffers.release(data);
+								result.completeExceptionally(failure);
+							} else if (method == ZipEntry.STORED) {
+								result.complete(data);
+							} else {
+								try {
+									result.complete(inflate(data, (int) size));
+								} catch (IOException | RuntimeException | Error e) {
+									result.completeExceptionally(e);
+								} finally {
+									buffers.release(data);
+								}
+							}
+						}
+					});
+				} catch (RuntimeException | Error e) {
+					buffers.release(data);
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Reads a chunk of a STORED entry without blocking the caller, like
+	 * {@link java.nio.channels.AsynchronousFileChannel#read(ByteBuffer, long)}
+	 * does, so large entries can be streamed without holding them in
+	 * memory as a whole.
+	 *
+	 * @param name of the entry
+	 * @param position within the entry's content
+	 * @param dst buffer to read into, whose position is advanced by the
+	 *            number of bytes read
+	 * @return future of the number of bytes read, or of -1 if the position
+	 *         is at or beyond the end of the entry
+	 */
+	public CompletableFuture<Integer> readAsync(String name, final long position, final ByteBuffer dst) {
+		if (position < 0)
+			throw new IllegalArgumentException("position must not be negative");
+		final CompletableFuture<Integer> result = new CompletableFuture<>();
+		final int entry = find(name);
+		if (entry < 0) {
+			result.completeExceptionally(new ZipException("no such entry: " + name));
+			return result;
+		}
+		if (directory.method(entry) != ZipEntry.STORED) {
+			result.completeExceptionally(new ZipException("only STORED entries can be read in chunks: " + name));
+			return result;
+		}
+		long size = directory.size(entry);
+		if (position >= size) {
+			result.complete(-1);
+			return result;
+		}
+		final int n = (int) Math.min(dst.remaining(), size - position);
+
+		dataOffsetAsync(entry).whenComplete(new BiConsumer<Long, Throwable>() {
+			@Override
+			public void accept(Long offset, Throwable failure) {
+				if (failure != null) {
+					result.completeExceptionally(failure);
+					return;
+				}
+				try {
+					ByteBuffer window = dst.duplicate();
+					window.limit(window.position() + n);
+					source.readAsync(window, offset + position).whenComplete(new BiConsumer<ByteBuffer, Throwable>() {
+						@Override
+						public void accept(ByteBuffer ignored, Throwable failure) {
+							if (failure != null) {
+								result.completeExceptionally(failure);
+							} else {
+								dst.position(dst.position() + n);
+								result.complete(n);
+							}
+						}
+					});
+				} catch (RuntimeException | Error e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Opens a read-only channel over the content of an entry, which can be
+	 * read from any position. STORED entries are read straight from the
+	 * archive. DEFLATED entries have to be inflated up to the position, but
+	 * the state of the inflater is recorded every megabyte along the way
+	 * and shared by all channels over the entry, so once an entry has been
+	 * read through, reading from anywhere only inflates up to a megabyte.
+	 *
+	 * @param name of the entry
+	 * @return the channel, or null if there is no such entry
+	 * @throws IOException if the entry cannot be read
+	 */
+	public SeekableByteChannel getChannel(String name) throws IOException {
+		int entry = find(name);
+		if (entry < 0)
+			return null;
+		switch (directory.method(entry)) {
+		case ZipEntry.STORED:
+			return new StoredEntryChannel(source, dataOffset(entry), directory.size(entry));
+		case ZipEntry.DEFLATED:
+			ByteBuffer data = source.slice(dataOffset(entry), directory.compressedSize(entry));
+			return new DeflatedEntryChannel(data, directory.size(entry), checkpoints(entry));
+		default:
+			throw new ZipException("invalid compression method");
+		}
+	}
+
+	private ConcurrentNavigableMap<Long, Checkpoint> checkpoints(int entry) {
+		ConcurrentNavigableMap<Long, Checkpoint> c = checkpoints.get(entry);
+		if (c == null) {
+			c = new ConcurrentSkipListMap<>();
+			ConcurrentNavigableMap<Long, Checkpoint> existing = checkpoints.putIfAbsent(entry, c);
+			if (existing != null)
+				c = existing;
+		}
+		return c;
+	}
+
+	/**
+	 * Visits all entries in parallel, using as many threads as there are
+	 * CPU cores available.
+	 *
+	 * @param visitor to be called for each entry
+	 * @throws IOException rethrows the exception of the first failed entry
+	 *             in the order of the archive
+	 */
+	public void parallelForEach(EntryVisitor visitor) throws IOException {
+		parallelForEach(visitor, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Visits all entries in parallel. Every entry is inflated by the thread
+	 * visiting it, reading from its own position in the archive, and the
+	 * largest entries are started first, so the scan is not stretched by a
+	 * single big entry at its end.
+	 *
+	 * @param visitor to be called for each entry
+	 * @param threads number of threads to use
+	 * @throws IOException rethrows the exception of the first failed entry
+	 *             in the order of the archive
+	 */
+	public void parallelForEach(final EntryVisitor visitor, int threads) throws IOException {
+		checkReadable();
+		CheckedParallelFor<Integer, IOException> loop = new CheckedParallelFor<Integer, IOException>(threads) {
+			@Override
+			public void step(Integer entry) throws IOException {
+				try (InputStream in = open(entry)) {
+					visitor.visit(directory.name(entry), in);
+				}
+			}
+		};
+		loop.setCostEstimator(new CostEstimator<Integer>() {
+			@Override
+			public long cost(Integer entry) {
+				return directory.compressedSize(entry);
+			}
+		}, Scheduling.LONGEST_FIRST);
+		loop.iterate(new IntRange(0, directory.size()));
+	}
+
+	/**
+	 * Extracts all entries into the given directory in parallel, see
+	 * {@link #parallelForEach(EntryVisitor)}.
+	 *
+	 * @param target directory to extract to, which gets created if needed
+	 * @throws IOException if an entry cannot be extracted, or if it would
+	 *             end up outside of the target directory
+	 */
+	public void extractAll(File target) throws IOException {
+		final File root = target.getCanonicalFile();
+		Files.createDirectories(root.toPath());
+		final String prefix = root.getPath() + File.separator;
+		parallelForEach(new EntryVisitor() {
+			@Override
+			public void visit(String name, InputStream content) throws IOException {
+				File file = new File(root, name).getCanonicalFile();
+				if (!file.getPath().startsWith(prefix))
+					throw new ZipException("entry is outside of the target directory: " + name);
+				if (name.endsWith("/")) {
+					Files.createDirectories(file.toPath());
+				} else {
+					Files.createDirectories(file.getParentFile().toPath());
+					Files.copy(content, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		});
+	}
+
+	private long dataOffset(int entry) throws IOException {
+		long offset = dataOffsets.get(entry);
+		if (offset == 0) {
+			long header = directory.localHeaderOffset(entry);
+			ByteBuffer loc = ByteBuffer.allocate(CentralDirectory.LOC_LEN).order(ByteOrder.LITTLE_ENDIAN);
+			source.read(loc, header);
+			offset = dataOffset(entry, header, loc);
+		}
+		return offset;
+	}
+
+	private CompletableFuture<Long> dataOffsetAsync(final int entry) {
+		final CompletableFuture<Long> result = new CompletableFuture<>();
+		long offset = dataOffsets.get(entry);
+		if (offset != 0) {
+			result.complete(offset);
+			return result;
+		}
+		final long header = directory.localHeaderOffset(entry);
+		ByteBuffer loc = ByteBuffer.allocate(CentralDirectory.LOC_LEN).order(ByteOrder.LITTLE_ENDIAN);
+		source.readAsync(loc, header).whenComplete(new BiConsumer<ByteBuffer, Throwable>() {
+			@Override
+			public void accept(ByteBuffer loc, Throwable failure) {
+				if (failure != null) {
+					result.completeExceptionally(failure);
+					return;
+				}
+				try {
+					result.complete(dataOffset(entry, header, loc));
+				} catch (ZipException | RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Resolves the offset of an entry's data from its local header.
+	 */
+	private long dataOffset(int entry, long header, ByteBuffer loc) throws ZipException {
+		if (loc.getInt(0) != CentralDirectory.LOC_SIG)
+			throw new ZipException("invalid LOC header (bad signature)");
+		long offset = header + CentralDirectory.LOC_LEN + (loc.getShort(26) & 0xFFFF)
+				+ (loc.getShort(28) & 0xFFFF);
+		// racy, but every thread computes the same value
+		dataOffsets.lazySet(entry, offset);
+		return offset;
+	}
+
+	/**
+	 * Appends an entry to an archive opened via {@link #create(File)}.
+	 * Directories, whose names end with a slash, are stored without content.
+	 *
+	 * @param name of the entry
+	 * @param content of the entry, which is read to its end, but not closed
+	 * @return always null, as entries cannot be replaced
+	 * @throws UnsupportedOperationException if the archive is read-only
+	 * @throws IllegalArgumentException if there already is such an entry
+	 * @throws UncheckedIOException if the content cannot be read, in which
+	 *             case the archive is left as it was before, or if this or
+	 *             a previous entry cannot be written, in which case that
+	 *             entry and all entries after it are discarded
+	 */
+	@Override
+	public InputStream put(String name, InputStream content) {
+		if (writer == null)
+			throw new UnsupportedOperationException("archive is read-only");
+		try {
+			writer.add(name, content);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return null;
+	}
+
+	/**
+	 * @return all entry names in lexicographical order, which are sorted
+	 *         once on first use
+	 */
+	private ImmutableSortedSet<String> sortedNames() {
+		checkReadable();
+		ImmutableSortedSet<String> names = sortedNames;
+		if (names == null) {
+			// racy, but every thread computes the same value
+			names = ImmutableSortedSet.copyOf(keySet());
+			sortedNames = names;
+		}
+		return names;
+	}
+
+	private NavigableMap<String, InputStream> asMap(NavigableSet<String> names) {
+		return Maps.asMap(names, new Function<String, InputStream>() {
+			@Override
+			public InputStream apply(String name) {
+				return get(name);
+			}
+		});
+	}
+
+	/**
+	 * Returns a view of this archive sorted by entry name, which supports
+	 * range queries in logarithmic time. Its values are opened on access,
+	 * like via {@link #get(Object)}.
+	 *
+	 * @return the sorted view
+	 */
+	public NavigableMap<String, InputStream> navigableMap() {
+		return asMap(sortedNames());
+	}
+
+	/**
+	 * Returns all entries whose names start with the given prefix, like the
+	 * whole tree below a directory. Finding them takes logarithmic time,
+	 * instead of scanning all entry names.
+	 *
+	 * @param prefix of the entry names, or "" for all entries
+	 * @return sorted view of the matching entries
+	 */
+	public NavigableMap<String, InputStream> subMap(String prefix) {
+		return asMap(withPrefix(sortedNames(), prefix));
+	}
+
+	private static NavigableSet<String> withPrefix(ImmutableSortedSet<String> names, String prefix) {
+		String end = successor(prefix);
+		return end == null ? names.tailSet(prefix, true) : names.subSet(prefix, true, end, false);
+	}
+
+	/**
+	 * @return the smallest string, that is greater than all strings starting
+	 *         with the given prefix, or null if there is none
+	 */
+	private static String successor(String prefix) {
+		for (int i = prefix.length() - 1; i >= 0; i--) {
+			char c = prefix.charAt(i);
+			if (c != Character.MAX_VALUE)
+				return prefix.substring(0, i) + (char) (c + 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Lists the direct children of a directory, like
+	 * {@link File#list()}. Subdirectories are listed with a trailing slash,
+	 * even if the archive holds no entries of their own, but only entries
+	 * below them. Each child is found in logarithmic time, so listing a
+	 * directory does not depend on the size of the archive.
+	 *
+	 * @param directory to be listed, with or without a trailing slash, or ""
+	 *            for the root
+	 * @return full names of all children in lexicographical order
+	 */
+	public SortedSet<String> children(String directory) {
+		String prefix = directory.isEmpty() || directory.endsWith("/") ? directory : directory + "/";
+		NavigableSet<String> below = withPrefix(sortedNames(), prefix);
+		ImmutableSortedSet.Builder<String> children = ImmutableSortedSet.naturalOrder();
+		String name = below.ceiling(prefix);
+		if (prefix.equals(name))
+			name = below.higher(name);
+		while (name != null) {
+			int slash = name.indexOf('/', prefix.length());
+			if (slash < 0 || slash == name.length() - 1) {
+				children.add(name);
+				name = below.higher(name);
+			} else {
+				// skip the whole subtree
+				String child = name.substring(0, slash + 1);
+				children.add(child);
+				String end = successor(child);
+				name = end == null ? null : below.ceiling(end);
+			}
+		}
+		return children.build();
+	}
+
 	@Override
 	public Set<String> keySet() {
+		if (writer != null)
+			return writtenKeySet();
 		return new AbstractSet<String>() {
 			@Override
 			public Iterator<String> iterator() {
 				return new Iterator<String>() {
-					final Enumeration<? extends ZipEntry> entries = zip
-							.entries();
+					private int entry = 0;
 
 					@Override
 					public boolean hasNext() {
-						return entries.hasMoreElements();
+						return entry < directory.size();
 					}
 
 					@Override
 					public String next() {
-						return entries.nextElement().getName();
+						if (entry >= directory.size())
+							throw new NoSuchElementException();
+						return directory.name(entry++);
 					}
 
 					@Override
@@ -72,15 +901,105 @@ public class ZipMap extends AbstractMap2<String, InputStream> implements Closeab
 				};
 			}
 
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof String && directory.find((String) o) >= 0;
+			}
+
+			@Override
+			public int size() {
+				return directory.size();
+			}
+		};
+	}
+
+	/**
+	 * @return names of the entries written so far
+	 */
+	private Set<String> writtenKeySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return writer.names().iterator();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof String && writer.contains((String) o);
+			}
+
 			@Override
 			public int size() {
-				return zip.size();
+				return writer.size();
 			}
 		};
 	}
 
 	@Override
 	public void close() throws IOException {
-		zip.close();
+		if (writer != null) {
+			writer.close();
+			return;
+		}
+		try {
+			source.close();
+		} finally {
+			if (zip != null)
+				zip.close();
+		}
+	}
+
+	/**
+	 * Inflates raw deflate data and returns the pooled {@link Inflater} on
+	 * close.
+	 */
+	private static class EntryInflaterInputStream extends InflaterInputStream {
+		private boolean eof;
+		private boolean closed;
+		private long remaining;
+
+		EntryInflaterInputStream(InputStream in, Inflater inf, long size) {
+			super(in, inf, (int) Math.max(64, Math.min(size, 8192)));
+			this.remaining = size;
+		}
+
+		@Override
+		protected void fill() throws IOException {
+			if (eof)
+				throw new EOFException("unexpected end of ZLIB input stream");
+			len = in.read(buf, 0, buf.length);
+			if (len == -1) {
+				// raw inflation may need a dummy byte beyond the data
+				buf[0] = 0;
+				len = 1;
+				eof = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				remaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Math.max(remaining, 0), Integer.MAX_VALUE);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				super.close();
+			} finally {
+				INFLATERS.release(inf);
+			}
+		}
 	}
 }
@@ -0,0 +1,73 @@
+package zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.ZipException;
+
+/**
+ * Random access to the bytes of a zip archive, wherever they are stored.
+ * All methods may be called by multiple threads concurrently.
+ *
+ * @author oreissig
+ */
+abstract class ZipSource implements Closeable {
+
+	/**
+	 * @return size of the archive in bytes
+	 */
+	abstract long size() throws IOException;
+
+	/**
+	 * Fills the given buffer from the given position and flips it.
+	 *
+	 * @param dst buffer to be filled
+	 * @param position within the archive
+	 * @throws IOException if the archive ends before the buffer is full
+	 */
+	abstract void read(ByteBuffer dst, long position) throws IOException;
+
+	/**
+	 * Fills the given buffer from the given position and flips it, like
+	 * {@link #read(ByteBuffer, long)}, but without blocking the caller.
+	 * By default, this reads synchronously, which suits archives in memory.
+	 *
+	 * @param dst buffer to be filled
+	 * @param position within the archive
+	 * @return the filled buffer, once it has been read
+	 */
+	CompletableFuture<ByteBuffer> readAsync(ByteBuffer dst, long position) {
+		CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+		try {
+			read(dst, position);
+			result.complete(dst);
+		} catch (IOException | RuntimeException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * @param position within the archive
+	 * @param length number of bytes
+	 * @return read-only view of the given region, without copying it where
+	 *         possible
+	 */
+	abstract ByteBuffer slice(long position, long length) throws IOException;
+
+	/**
+	 * @param position within the archive
+	 * @param length number of bytes
+	 * @return stream of the given region, that does not interfere with
+	 *         other streams
+	 */
+	abstract InputStream open(long position, long length) throws IOException;
+
+	static int checkLength(long length) throws ZipException {
+		if (length > Integer.MAX_VALUE)
+			throw new ZipException("region too large for a buffer");
+		return (int) length;
+	}
+}
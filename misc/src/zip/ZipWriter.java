@@ -0,0 +1,502 @@
+package zip;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Writes a zip archive, compressing every entry block-parallel like pigz:
+ * the content is cut into blocks, which get deflated independently on all
+ * threads, each one primed with the last 32KB of its predecessor as
+ * dictionary and ended on a byte boundary by a sync flush, so the
+ * compressed blocks simply concatenate to one valid deflate stream.
+ * <p>
+ * Blocks of all entries pass through one pipeline, which is written in
+ * order, so the next entries are read and compressed, while the previous
+ * ones are still being written. This keeps all threads busy even with many
+ * small entries, but means an entry may fail after it has been added.
+ * <p>
+ * Entries are streamed, so their sizes and CRCs follow their data in a data
+ * descriptor. The central directory is written on {@link #close()}. Like
+ * {@link java.util.zip.ZipOutputStream}, ZIP64 records are added once an
+ * archive exceeds 65,535 entries or 4GB, but only for the fields, that
+ * overflow, so small archives remain readable by any tool.
+ *
+ * @author oreissig
+ */
+final class ZipWriter implements Closeable {
+
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final int DESC_SIG = 0x08074b50;
+	private static final int DESC_LEN = 16;
+	private static final int DESC_LEN_ZIP64 = 24;
+	private static final int VERSION = 20;
+	private static final int VERSION_ZIP64 = 45;
+	// sizes follow in a data descriptor, names are UTF-8
+	private static final int FLAGS = 0x0808;
+	private static final int DIRECTORY_FLAGS = 0x0800;
+	// values reaching these limits are marked as given in a ZIP64 record
+	private static final long MAX_32 = 0xFFFFFFFFL;
+	private static final int MAX_16 = 0xFFFF;
+
+	private final FileChannel channel;
+	private final OutputStream out;
+	private final ExecutorService workers;
+	private final int inFlight;
+	private final int level;
+	private final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+	private final Set<String> names = new LinkedHashSet<>();
+	// entries added, but not completely written yet, in order
+	private final Deque<Entry> pipeline = new ArrayDeque<>();
+	// blocks of the pipeline, that have not been written yet
+	private int queued;
+	private long position;
+	private boolean closed;
+
+	/**
+	 * @param path of the archive, which gets replaced if it exists
+	 * @param threads number of threads compressing in parallel
+	 * @param level of compression, see {@link Deflater}
+	 */
+	ZipWriter(Path path, int threads, int level) throws IOException {
+		if (threads < 1)
+			throw new IllegalArgumentException("at least one thread is needed");
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 65536);
+		this.workers = Executors.newFixedThreadPool(threads);
+		// keep every thread busy, while the next blocks are written
+		this.inFlight = 2 * threads;
+		this.level = level;
+	}
+
+	/**
+	 * @return names of the entries added so far, in order
+	 */
+	synchronized Set<String> names() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(names));
+	}
+
+	synchronized boolean contains(String name) {
+		return names.contains(name);
+	}
+
+	synchronized int size() {
+		return names.size();
+	}
+
+	/**
+	 * Appends an entry. Directories, whose names end with a slash, are
+	 * stored without content. The content is read right away, but the entry
+	 * is compressed and written in the background. If the content cannot be
+	 * read, the archive is left as it was before. If an entry cannot be
+	 * written, that entry and all entries added after it are discarded and
+	 * the failure is reported by the next call to this method or by
+	 * {@link #close()}.
+	 *
+	 * @param name of the entry
+	 * @param content of the entry, which is read to its end, but not closed
+	 * @throws IllegalArgumentException if there already is such an entry
+	 * @throws IOException if the content cannot be read, or this or a
+	 *             previous entry cannot be written
+	 */
+	synchronized void add(String name, InputStream content) throws IOException {
+		if (closed)
+			throw new IllegalStateException("archive is closed");
+		if (names.contains(name))
+			throw new IllegalArgumentException("duplicate entry: " + name);
+		byte[] name8 = name.getBytes(StandardCharsets.UTF_8);
+		if (name8.length > MAX_16)
+			throw new ZipException("entry name too long: " + name);
+
+		Entry entry = new Entry(name, name8);
+		pipeline.add(entry);
+		names.add(name);
+		if (entry.isDirectory())
+			entry.complete = true;
+		else
+			compress(entry, content);
+		drain(inFlight);
+	}
+
+	/**
+	 * Reads the content of an entry and submits its blocks for compression,
+	 * while writing the pipeline as far as needed to bound its length.
+	 */
+	private void compress(Entry entry, InputStream content) throws IOException {
+		byte[] block = read(entry, content);
+		byte[] previous = null;
+		for (;;) {
+			entry.crc.update(block);
+			entry.size += block.length;
+			// peek ahead, as the final block has to be marked as such
+			byte[] next = block.length < BLOCK_SIZE ? null : read(entry, content);
+			boolean last = next == null || next.length == 0;
+			entry.blocks.add(workers.submit(new Deflation(block, previous, last)));
+			queued++;
+			if (last)
+				break;
+			drain(inFlight);
+			previous = block;
+			block = next;
+		}
+		entry.complete = true;
+	}
+
+	/**
+	 * @return the next block of the content, see {@link #readBlock(InputStream)}
+	 * @throws IOException if the content cannot be read, in which case the
+	 *             entry is discarded
+	 */
+	private byte[] read(Entry entry, InputStream content) throws IOException {
+		try {
+			return readBlock(content);
+		} catch (IOException | RuntimeException e) {
+			// the entry is the last one, so its header is only written, if
+			// all entries before it are complete
+			pipeline.removeLast();
+			discard(entry);
+			if (entry.start >= 0)
+				rollback(entry.start);
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the pipeline in order, waiting for blocks to be compressed as
+	 * long as more than the given number of them are queued, and continuing
+	 * with those, that are done already.
+	 *
+	 * @param keep number of blocks, that may remain queued
+	 * @throws IOException if an entry cannot be written, in which case it
+	 *             and all entries after it are discarded
+	 */
+	private void drain(int keep) throws IOException {
+		while (!pipeline.isEmpty()) {
+			Entry entry = pipeline.getFirst();
+			try {
+				if (entry.start < 0) {
+					entry.start = position;
+					writeHeader(entry);
+				}
+				while (!entry.blocks.isEmpty()) {
+					Future<byte[]> block = entry.blocks.getFirst();
+					if (queued <= keep && !block.isDone())
+						return;
+					entry.compressedSize += write(block);
+					entry.blocks.removeFirst();
+					queued--;
+				}
+				if (!entry.complete)
+					return;
+				writeEnd(entry);
+			} catch (IOException | RuntimeException e) {
+				for (Entry d : pipeline)
+					discard(d);
+				pipeline.clear();
+				try {
+					rollback(entry.start);
+				} catch (IOException r) {
+					e.addSuppressed(r);
+				}
+				throw new IOException("cannot write entry " + entry.name
+						+ ", it has been discarded with all entries added after it", e);
+			}
+			pipeline.removeFirst();
+		}
+	}
+
+	private void discard(Entry entry) {
+		for (Future<byte[]> block : entry.blocks)
+			block.cancel(true);
+		queued -= entry.blocks.size();
+		entry.blocks.clear();
+		names.remove(entry.name);
+	}
+
+	private void writeHeader(Entry entry) throws IOException {
+		int flags = entry.isDirectory() ? DIRECTORY_FLAGS : FLAGS;
+		int method = entry.isDirectory() ? ZipEntry.STORED : ZipEntry.DEFLATED;
+		ByteBuffer loc = header(CentralDirectory.LOC_LEN + entry.name8.length);
+		loc.putInt(CentralDirectory.LOC_SIG).putShort((short) VERSION)
+				.putShort((short) flags).putShort((short) method)
+				.putShort((short) entry.time[0]).putShort((short) entry.time[1])
+				.putInt(0).putInt(0).putInt(0)
+				.putShort((short) entry.name8.length).putShort((short) 0).put(entry.name8);
+		write(loc);
+	}
+
+	private void writeEnd(Entry entry) throws IOException {
+		if (entry.isDirectory()) {
+			record(entry.name8, DIRECTORY_FLAGS, ZipEntry.STORED, entry.time, 0, 0, 0, entry.start, 0x10);
+			return;
+		}
+		long crc = entry.crc.getValue();
+		ByteBuffer desc;
+		if (entry.size >= MAX_32 || entry.compressedSize >= MAX_32) {
+			// readers expect 8-byte sizes, whenever they overflow
+			desc = header(DESC_LEN_ZIP64);
+			desc.putInt(DESC_SIG).putInt((int) crc)
+					.putLong(entry.compressedSize).putLong(entry.size);
+		} else {
+			desc = header(DESC_LEN);
+			desc.putInt(DESC_SIG).putInt((int) crc)
+					.putInt((int) entry.compressedSize).putInt((int) entry.size);
+		}
+		write(desc);
+		record(entry.name8, FLAGS, ZipEntry.DEFLATED, entry.time, crc,
+				entry.compressedSize, entry.size, entry.start, 0);
+	}
+
+	private static byte[] readBlock(InputStream in) throws IOException {
+		byte[] block = new byte[BLOCK_SIZE];
+		int n = ByteStreams.read(in, block, 0, block.length);
+		return n == block.length ? block : Arrays.copyOf(block, n);
+	}
+
+	private long write(Future<byte[]> block) throws IOException {
+		byte[] compressed;
+		try {
+			compressed = block.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw Throwables.propagate(e.getCause());
+		}
+		out.write(compressed);
+		position += compressed.length;
+		return compressed.length;
+	}
+
+	private void write(ByteBuffer header) throws IOException {
+		out.write(header.array(), 0, header.position());
+		position += header.position();
+	}
+
+	/**
+	 * Appends the central directory header of an entry, which is written on
+	 * close. Values, that do not fit their 32-bit fields, are moved to a
+	 * ZIP64 extra field in the order given by the spec.
+	 */
+	private void record(byte[] name, int flags, int method, int[] time, long crc,
+			long compressedSize, long size, long offset, int externalAttributes) {
+		boolean bigSize = size >= MAX_32;
+		boolean bigCompressed = compressedSize >= MAX_32;
+		boolean bigOffset = offset >= MAX_32;
+		int extraLength = 8 * ((bigSize ? 1 : 0) + (bigCompressed ? 1 : 0) + (bigOffset ? 1 : 0));
+		int version = extraLength > 0 ? VERSION_ZIP64 : VERSION;
+		int extraTotal = extraLength > 0 ? 4 + extraLength : 0;
+
+		ByteBuffer cen = header(CentralDirectory.CEN_LEN + name.length + extraTotal);
+		cen.putInt(CentralDirectory.CEN_SIG).putShort((short) version).putShort((short) version)
+				.putShort((short) flags).putShort((short) method)
+				.putShort((short) time[0]).putShort((short) time[1]).putInt((int) crc)
+				.putInt(bigCompressed ? CentralDirectory.ZIP64_MAGIC : (int) compressedSize)
+				.putInt(bigSize ? CentralDirectory.ZIP64_MAGIC : (int) size)
+				.putShort((short) name.length).putShort((short) extraTotal).putShort((short) 0)
+				.putShort((short) 0).putShort((short) 0).putInt(externalAttributes)
+				.putInt(bigOffset ? CentralDirectory.ZIP64_MAGIC : (int) offset).put(name);
+		if (extraLength > 0) {
+			cen.putShort((short) CentralDirectory.ZIP64_EXTRA_ID).putShort((short) extraLength);
+			if (bigSize)
+				cen.putLong(size);
+			if (bigCompressed)
+				cen.putLong(compressedSize);
+			if (bigOffset)
+				cen.putLong(offset);
+		}
+		directory.write(cen.array(), 0, cen.position());
+	}
+
+	/**
+	 * Discards everything written since the given position.
+	 */
+	private void rollback(long start) throws IOException {
+		out.flush();
+		channel.truncate(start);
+		channel.position(start);
+		position = start;
+	}
+
+	private static ByteBuffer header(int length) {
+		return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @return current time and date in MS-DOS format
+	 */
+	private static int[] dosTime() {
+		LocalDateTime t = LocalDateTime.now();
+		int time = t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+		int date = Math.max(t.getYear() - 1980, 0) << 9 | t.getMonthValue() << 5 | t.getDayOfMonth();
+		return new int[] { time, date };
+	}
+
+	/**
+	 * Writes the remaining entries and the central directory and closes the
+	 * archive. If an entry cannot be written, the archive is still completed
+	 * with the entries before it.
+	 *
+	 * @throws IOException if the archive or one of its entries cannot be
+	 *             written
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		IOException failure = null;
+		try {
+			drain(0);
+		} catch (IOException e) {
+			failure = e;
+		}
+		try {
+			workers.shutdownNow();
+			long cdOffset = position;
+			long cdSize = directory.size();
+			int count = names.size();
+			directory.writeTo(out);
+			position += cdSize;
+			if (count >= MAX_16 || cdSize >= MAX_32 || cdOffset >= MAX_32)
+				writeZip64End(count, cdSize, cdOffset);
+			ByteBuffer eocd = header(CentralDirectory.EOCD_LEN);
+			eocd.putInt(CentralDirectory.EOCD_SIG).putShort((short) 0).putShort((short) 0)
+					.putShort((short) Math.min(count, MAX_16))
+					.putShort((short) Math.min(count, MAX_16))
+					.putInt((int) Math.min(cdSize, MAX_32))
+					.putInt((int) Math.min(cdOffset, MAX_32)).putShort((short) 0);
+			write(eocd);
+			out.flush();
+		} catch (IOException e) {
+			// the failed entry most likely is the cause
+			if (failure == null)
+				throw e;
+			failure.addSuppressed(e);
+		} finally {
+			out.close();
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Writes the ZIP64 end of central directory record and its locator,
+	 * which hold the values, that overflow the regular end record.
+	 */
+	private void writeZip64End(int count, long cdSize, long cdOffset) throws IOException {
+		long zip64Offset = position;
+		ByteBuffer end = header(CentralDirectory.ZIP64_EOCD_LEN);
+		// the size of the record excludes its signature and the size itself
+		end.putInt(CentralDirectory.ZIP64_EOCD_SIG).putLong(CentralDirectory.ZIP64_EOCD_LEN - 12)
+				.putShort((short) VERSION_ZIP64).putShort((short) VERSION_ZIP64)
+				.putInt(0).putInt(0).putLong(count).putLong(count)
+				.putLong(cdSize).putLong(cdOffset);
+		write(end);
+		ByteBuffer locator = header(CentralDirectory.ZIP64_LOCATOR_LEN);
+		locator.putInt(CentralDirectory.ZIP64_LOCATOR_SIG).putInt(0)
+				.putLong(zip64Offset).putInt(1);
+		write(locator);
+	}
+
+	/**
+	 * An entry on its way through the pipeline.
+	 */
+	private static class Entry {
+		final String name;
+		final byte[] name8;
+		final int[] time = dosTime();
+		final CRC32 crc = new CRC32();
+		// compressed blocks, that have not been written yet
+		final Deque<Future<byte[]>> blocks = new ArrayDeque<>();
+		// all blocks have been submitted
+		boolean complete;
+		// position of its header, once it has been written
+		long start = -1;
+		long size;
+		long compressedSize;
+
+		Entry(String name, byte[] name8) {
+			this.name = name;
+			this.name8 = name8;
+		}
+
+		boolean isDirectory() {
+			return name.endsWith("/");
+		}
+	}
+
+	/**
+	 * Deflates a single block of an entry.
+	 */
+	private class Deflation implements Callable<byte[]> {
+		private final byte[] input;
+		private final byte[] previous;
+		private final boolean last;
+
+		Deflation(byte[] input, byte[] previous, boolean last) {
+			this.input = input;
+			this.previous = previous;
+			this.last = last;
+		}
+
+		@Override
+		public byte[] call() {
+			Deflater def = new Deflater(level, true);
+			try {
+				if (previous != null)
+					def.setDictionary(previous, previous.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+				def.setInput(input);
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 2 + 64);
+				byte[] buf = new byte[8192];
+				if (last) {
+					def.finish();
+					while (!def.finished())
+						compressed.write(buf, 0, def.deflate(buf));
+				} else {
+					// ends the block on a byte boundary, without marking it final
+					int n;
+					do {
+						n = def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+						compressed.write(buf, 0, n);
+					} while (n == buf.length);
+				}
+				return compressed.toByteArray();
+			} finally {
+				def.end();
+			}
+		}
+	}
+}
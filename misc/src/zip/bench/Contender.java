@@ -0,0 +1,149 @@
+package zip.bench;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import zip.ZipMap;
+
+/**
+ * A way of reading zip archives, that is benchmarked against the others.
+ *
+ * @author oreissig
+ */
+abstract class Contender implements Closeable {
+
+	/**
+	 * @return whether there is an entry of the given name
+	 */
+	abstract boolean contains(String name) throws IOException;
+
+	/**
+	 * @return names of all entries, in the order of the archive
+	 */
+	abstract List<String> names() throws IOException;
+
+	/**
+	 * @return content of the given entry, which must be closed
+	 */
+	abstract InputStream open(String name) throws IOException;
+
+	static final String[] NAMES = { "ZipMap", "ZipFile", "zipfs" };
+
+	static Contender open(String contender, File archive) throws IOException {
+		switch (contender) {
+		case "ZipMap":
+			return zipMap(archive);
+		case "ZipFile":
+			return zipFile(archive);
+		case "zipfs":
+			return zipFileSystem(archive);
+		default:
+			throw new IllegalArgumentException("unknown contender: " + contender);
+		}
+	}
+
+	private static Contender zipMap(File archive) throws IOException {
+		final ZipMap zip = new ZipMap(archive);
+		return new Contender() {
+			@Override
+			boolean contains(String name) {
+				return zip.containsKey(name);
+			}
+
+			@Override
+			List<String> names() {
+				return new ArrayList<>(zip.keySet());
+			}
+
+			@Override
+			InputStream open(String name) {
+				return zip.get(name);
+			}
+
+			@Override
+			public void close() throws IOException {
+				zip.close();
+			}
+		};
+	}
+
+	private static Contender zipFile(File archive) throws IOException {
+		final ZipFile zip = new ZipFile(archive);
+		return new Contender() {
+			@Override
+			boolean contains(String name) {
+				return zip.getEntry(name) != null;
+			}
+
+			@Override
+			List<String> names() {
+				List<String> names = new ArrayList<>(zip.size());
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements())
+					names.add(entries.nextElement().getName());
+				return names;
+			}
+
+			@Override
+			InputStream open(String name) throws IOException {
+				return zip.getInputStream(zip.getEntry(name));
+			}
+
+			@Override
+			public void close() throws IOException {
+				zip.close();
+			}
+		};
+	}
+
+	private static Contender zipFileSystem(File archive) throws IOException {
+		final FileSystem fs = FileSystems.newFileSystem(archive.toPath(), (ClassLoader) null);
+		return new Contender() {
+			@Override
+			boolean contains(String name) {
+				return Files.exists(fs.getPath(name));
+			}
+
+			@Override
+			List<String> names() throws IOException {
+				List<String> names = new ArrayList<>();
+				for (Path root : fs.getRootDirectories())
+					collect(root, names);
+				return names;
+			}
+
+			private void collect(Path dir, List<String> names) throws IOException {
+				try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+					for (Path p : children) {
+						if (Files.isDirectory(p))
+							collect(p, names);
+						else
+							names.add(p.toString().substring(1));
+					}
+				}
+			}
+
+			@Override
+			InputStream open(String name) throws IOException {
+				return Files.newInputStream(fs.getPath(name));
+			}
+
+			@Override
+			public void close() throws IOException {
+				fs.close();
+			}
+		};
+	}
+}
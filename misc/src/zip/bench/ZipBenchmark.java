@@ -0,0 +1,246 @@
+package zip.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compares {@link zip.ZipMap} with {@link java.util.zip.ZipFile} and the zip
+ * {@link java.nio.file.FileSystem} on synthetic archives: many small entries
+ * and a few huge ones, each of them STORED and DEFLATED.
+ * <p>
+ * For every archive and contender, this measures the time to open the
+ * archive, the latency of looking up names (half of them missing), the time
+ * to list all names, the throughput of reading all entries on a single
+ * thread and of reading random entries on all threads. Every measurement is
+ * repeated after a warm-up and the median is reported.
+ * <p>
+ * Usage: <code>ZipBenchmark [directory [scale]]</code>, where the archives
+ * are generated into the given directory (a temporary one by default) and
+ * their sizes are multiplied by the given positive scale (1 by default).
+ *
+ * @author oreissig
+ */
+public class ZipBenchmark {
+
+	private static final int WARMUP = 3;
+	private static final int RUNS = 5;
+	private static final int LOOKUPS = 100000;
+
+	// consumes results, so the JIT cannot eliminate the work producing them
+	static volatile long sink;
+
+	private interface Task {
+		/**
+		 * @return some value depending on all the work done
+		 */
+		long run() throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File dir = args.length > 0 ? new File(args[0]) : Files.createTempDirectory("zipbench").toFile();
+		double scale = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		if (!(scale > 0))
+			throw new IllegalArgumentException("scale must be positive: " + scale);
+		long smallCount = Math.max(1, Math.round(20000 * scale));
+		long hugeSize = Math.max(1, Math.round((64L << 20) * scale));
+		// each entry is generated into a single array
+		if (hugeSize > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("scale too large for entries to fit into an array: " + scale);
+		dir.mkdirs();
+		File[] archives = {
+				generate(dir, "small", (int) smallCount, 1024, ZipEntry.STORED),
+				generate(dir, "small", (int) smallCount, 1024, ZipEntry.DEFLATED),
+				generate(dir, "huge", 4, (int) hugeSize, ZipEntry.STORED),
+				generate(dir, "huge", 4, (int) hugeSize, ZipEntry.DEFLATED), };
+
+		System.out.printf("%d threads, median of %d runs after %d warm-ups%n", threads, RUNS, WARMUP);
+		for (File archive : archives) {
+			System.out.printf("%n%s (%d MB)%n", archive.getName(), archive.length() >> 20);
+			System.out.printf("%-8s %10s %12s %10s %12s %14s%n", "", "open [ms]", "lookup [ns]",
+					"keys [ms]", "scan [MB/s]", "parallel [MB/s]");
+			for (String contender : Contender.NAMES)
+				run(contender, archive, threads);
+		}
+	}
+
+	private static void run(final String name, final File archive, final int threads) throws Exception {
+		long open = median(new Task() {
+			@Override
+			public long run() throws IOException {
+				try (Contender c = Contender.open(name, archive)) {
+					return c.names().size();
+				}
+			}
+		});
+
+		try (final Contender c = Contender.open(name, archive)) {
+			final List<String> names = c.names();
+			final String[] probes = new String[LOOKUPS];
+			Random random = new Random(42);
+			for (int i = 0; i < probes.length; i++) {
+				String n = names.get(random.nextInt(names.size()));
+				probes[i] = i % 2 == 0 ? n : n + ".missing";
+			}
+
+			long lookup = median(new Task() {
+				@Override
+				public long run() throws IOException {
+					long hits = 0;
+					for (String probe : probes) {
+						if (c.contains(probe))
+							hits++;
+					}
+					return hits;
+				}
+			});
+			long keys = median(new Task() {
+				@Override
+				public long run() throws IOException {
+					return c.names().size();
+				}
+			});
+			final long[] bytes = new long[1];
+			long scan = median(new Task() {
+				@Override
+				public long run() throws IOException {
+					long total = 0;
+					for (String n : names)
+						total += read(c, n);
+					bytes[0] = total;
+					return total;
+				}
+			});
+			long scanBytes = bytes[0];
+			long parallel = median(new Task() {
+				@Override
+				public long run() throws Exception {
+					bytes[0] = readInParallel(c, names, threads);
+					return bytes[0];
+				}
+			});
+
+			System.out.printf("%-8s %10.1f %12.0f %10.1f %12.0f %14.0f%n", name, open / 1e6,
+					(double) lookup / LOOKUPS, keys / 1e6, throughput(scanBytes, scan),
+					throughput(bytes[0], parallel));
+		}
+	}
+
+	/**
+	 * All threads together read as many random entries, as there are
+	 * entries in total, so the archive is read about once per run, spread
+	 * across all threads.
+	 *
+	 * @return number of bytes read
+	 */
+	private static long readInParallel(final Contender c, final List<String> names, int threads)
+			throws Exception {
+		final int reads = Math.max(names.size() / threads, 1);
+		ExecutorService exec = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Long>> results = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				results.add(exec.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException {
+						ThreadLocalRandom random = ThreadLocalRandom.current();
+						long total = 0;
+						for (int i = 0; i < reads; i++)
+							total += read(c, names.get(random.nextInt(names.size())));
+						return total;
+					}
+				}));
+			}
+			long total = 0;
+			for (Future<Long> f : results)
+				total += f.get();
+			return total;
+		} finally {
+			exec.shutdown();
+		}
+	}
+
+	private static long read(Contender c, String name) throws IOException {
+		byte[] buf = new byte[8192];
+		long total = 0;
+		try (InputStream in = c.open(name)) {
+			int n;
+			while ((n = in.read(buf)) > 0)
+				total += n;
+		}
+		return total;
+	}
+
+	private static double throughput(long bytes, long nanos) {
+		return bytes / (nanos / 1e9) / (1 << 20);
+	}
+
+	/**
+	 * @return median run time in nanoseconds
+	 */
+	private static long median(Task task) throws Exception {
+		for (int i = 0; i < WARMUP; i++)
+			sink += task.run();
+		long[] times = new long[RUNS];
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			sink += task.run();
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		return times[RUNS / 2];
+	}
+
+	/**
+	 * Generates an archive of text-like, compressible entries spread over
+	 * 100 directories, unless it already exists. Its name holds all the
+	 * parameters, so archives of other scales are never mistaken for it.
+	 */
+	private static File generate(File dir, String kind, int count, int size, int method) throws IOException {
+		File archive = new File(dir, String.format("%s-%s-%dx%d.zip", kind,
+				method == ZipEntry.STORED ? "stored" : "deflated", count, size));
+		if (archive.exists())
+			return archive;
+		System.out.printf("generating %s%n", archive);
+		Random random = new Random(count ^ size);
+		byte[] content = new byte[size];
+		File tmp = new File(archive.getPath() + ".tmp");
+		try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.setMethod(method);
+			for (int i = 0; i < count; i++) {
+				for (int j = 0; j < size; j++)
+					content[j] = (byte) ('a' + random.nextInt(random.nextInt(26) + 1));
+				ZipEntry e = new ZipEntry("dir" + (i % 100) + "/file" + i + ".txt");
+				if (method == ZipEntry.STORED) {
+					CRC32 crc = new CRC32();
+					crc.update(content);
+					e.setSize(size);
+					e.setCompressedSize(size);
+					e.setCrc(crc.getValue());
+				}
+				out.putNextEntry(e);
+				out.write(content);
+				out.closeEntry();
+			}
+		}
+		Files.move(tmp.toPath(), archive.toPath());
+		return archive;
+	}
+}